@@ -4,11 +4,13 @@ import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.kraken.api.*;
-import com.kraken.auth.CognitoAuth;
 import com.kraken.auth.DiscordAuth;
+import com.kraken.loader.PluginClassInfo;
+import com.kraken.metrics.KrakenMetrics;
 import com.kraken.panel.KrakenPluginListPanel;
 import com.kraken.panel.RootPanel;
 import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.eventbus.Subscribe;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginDescriptor;
 import net.runelite.client.ui.ClientToolbar;
@@ -18,6 +20,14 @@ import net.runelite.client.util.ImageUtil;
 import javax.swing.*;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @Singleton
@@ -50,23 +60,52 @@ public class KrakenLoaderPlugin extends Plugin {
     @Inject
     private KrakenCredentialManager credentialManager;
 
+    @Inject
+    private KrakenTokenManager tokenManager;
+
+    @Inject
+    private KrakenMetrics metrics;
+
     private NavigationButton navButton;
+    private ExecutorService loaderExecutor;
+
+    /**
+     * Loads submitted to the loader which may not have finished yet, cancelled on shutdown.
+     */
+    private final List<Future<?>> pendingLoads = new CopyOnWriteArrayList<>();
     private static final String DISCONNECT_DISCORD_BUTTON_TEXT = "Disconnect Discord";
     private static final String SIGN_IN_DISCORD_BUTTON_TEXT = "Sign-in with Discord";
+    private static final String AUTHENTICATING_BUTTON_TEXT = "Authenticating...";
+
+    /**
+     * When true and valid credentials are cached on disk Kraken plugins are started before the API has confirmed the
+     * credentials. The plugins are unloaded again if the API rejects them. Enable with -Dkraken.optimisticBoot=true
+     */
+    private static final boolean OPTIMISTIC_BOOT = Boolean.parseBoolean(System.getProperty("kraken.optimisticBoot", "false"));
 
     @Override
     protected void startUp() {
         RootPanel panelRoot = rootPanelProvider.get();
         KrakenPluginListPanel panel = pluginListPanelProvider.get();
-        boolean userAuthenticated = startAuthFlow(panel.getDiscordButton());
 
-        if(userAuthenticated) {
-            krakenPluginManager.loadKrakenPlugins();
-        }
+        metrics.startPeriodicDump(1, TimeUnit.MINUTES);
+
+        // Loading and unloading Kraken plugins is serialized on a single background thread so startUp never waits on
+        // the Kraken API or on plugin startup.
+        loaderExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "kraken-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
 
-        krakenPluginManager.getPluginMap().put("Kraken Plugins", this);
+        krakenPluginManager.getPluginMap().put("Kraken Plugins", PluginClassInfo.fromClass(getClass()));
         panel.rebuildPluginList();
 
+        JButton discordButton = panel.getDiscordButton();
+        discordButton.setText(AUTHENTICATING_BUTTON_TEXT);
+        discordButton.setEnabled(false);
+        startAuthFlow(discordButton);
+
         final BufferedImage icon = ImageUtil.loadImageResource(getClass(), "images/kraken.png");
         navButton = NavigationButton.builder()
                 .tooltip("Kraken Plugins")
@@ -78,38 +117,114 @@ public class KrakenLoaderPlugin extends Plugin {
         clientToolbar.addNavigation(navButton);
     }
 
+    /**
+     * Loads and starts the Kraken plugins on the loader thread and then rebuilds the plugin list.
+     */
+    private void loadKrakenPluginsAsync() {
+        pendingLoads.removeIf(Future::isDone);
+        pendingLoads.add(loaderExecutor.submit(() -> {
+            krakenPluginManager.loadKrakenPlugins();
+            krakenPluginManager.startWatching(loaderExecutor);
+            SwingUtilities.invokeLater(() -> pluginListPanelProvider.get().rebuildPluginList());
+        }));
+    }
+
+    /**
+     * Stops and unloads the Kraken plugins on the loader thread and then rebuilds the plugin list.
+     */
+    private void unloadKrakenPluginsAsync() {
+        loaderExecutor.execute(() -> {
+            krakenPluginManager.unloadKrakenPlugins();
+            SwingUtilities.invokeLater(() -> pluginListPanelProvider.get().rebuildPluginList());
+        });
+    }
+
     private void resetDiscordButton(JButton discordButton) {
         discordButton.setText(SIGN_IN_DISCORD_BUTTON_TEXT);
-        discordButton.addActionListener(discordOAuthFlow());
+        discordButton.setEnabled(true);
+        setDiscordAction(discordButton, discordOAuthFlow());
+    }
+
+    /**
+     * Replaces the action of the discord button. Listeners are removed first so repeated sign-in or disconnect cycles
+     * never stack up listeners which would fire the same flow (and API calls) multiple times per click.
+     */
+    private static void setDiscordAction(JButton discordButton, ActionListener listener) {
+        for (ActionListener existing : discordButton.getActionListeners()) {
+            discordButton.removeActionListener(existing);
+        }
+        discordButton.addActionListener(listener);
     }
 
     /**
-     * Starts the general Auth flow for a user. It goes as follows:
+     * Starts the general Auth flow for a user without blocking the calling thread. It goes as follows:
      * - Attempt to see if creds are already on disk
-     * 	- Yes: authenticate with creds against Cognito via Kraken API
+     * 	- Yes: use the cached access token if it has not expired, otherwise authenticate with creds against Cognito via
+     * 	  Kraken API in the background
      * 		- Success: Update button action listener and load proper JAR's for purchased plugins
      * 		- Failure: Update button to re-link discord, delete creds from disk, warn user.
+     * 	- When optimistic boot is enabled the plugins are loaded before auth completes and unloaded again if the
+     * 	  API rejects the credentials. Plugins keep running if the API simply could not be reached.
      * - No: Update button to direct user through Discord oauth flow to create user in cognito & write creds to disk.
+     * @return CompletableFuture which completes with true when the user was authenticated.
      */
-    public boolean startAuthFlow(JButton discordButton) {
+    public CompletableFuture<Boolean> startAuthFlow(JButton discordButton) {
         CognitoUser user = credentialManager.loadUserCredentials();
-        if(user == null) {
+        if(user == null || user.getCredentials() == null) {
             log.info("No creds on disk. User has not gone through discord. OAuth 2.0 flow.");
             // The user has not gone through the OAuth 2.0 flow with discord yet.
-        } else {
-            // The user has linked their discord, attempt to authenticate creds on disk.
-            CognitoUser authUser = krakenClient.authenticate(new CognitoAuth(user.getDiscordId(), user.getCredentials().getRefreshToken()));
-            if(authUser.getDiscordId() != null && authUser.getDiscordUsername() != null) {
-                credentialManager.persistUserCredentials(authUser);
-                discordButton.addActionListener(e -> disconnectDiscord(authUser, discordButton));
-                discordButton.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
-                log.info("User: {} has been successfully authenticated.", user.getDiscordUsername());
-                return true;
-            }
-            log.info("User auth failed. Disconnecting discord.");
+            resetDiscordButton(discordButton);
+            return CompletableFuture.completedFuture(false);
         }
-        resetDiscordButton(discordButton);
-        return false;
+
+        boolean optimistic = OPTIMISTIC_BOOT && hasCachedCredentials(user);
+        if(optimistic) {
+            log.info("Optimistically loading Kraken plugins for user: {} while authenticating.", user.getDiscordUsername());
+            loadKrakenPluginsAsync();
+        }
+
+        // The user has linked their discord, attempt to authenticate creds on disk.
+        return tokenManager.authenticate(user)
+                .handle((authUser, error) -> {
+                    if(error == null && authUser != null && authUser.getDiscordId() != null && authUser.getDiscordUsername() != null) {
+                        SwingUtilities.invokeLater(() -> {
+                            setDiscordAction(discordButton, e -> disconnectDiscord(authUser, discordButton));
+                            discordButton.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
+                            discordButton.setEnabled(true);
+                        });
+
+                        if(!optimistic) {
+                            loadKrakenPluginsAsync();
+                        }
+                        log.info("User: {} has been successfully authenticated.", user.getDiscordUsername());
+                        return true;
+                    }
+
+                    if(optimistic && KrakenApiException.isTransient(error)) {
+                        log.warn("Kraken API unreachable, keeping optimistically loaded plugins. Error = {}", error.getMessage());
+                        SwingUtilities.invokeLater(() -> {
+                            setDiscordAction(discordButton, e -> disconnectDiscord(user, discordButton));
+                            discordButton.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
+                            discordButton.setEnabled(true);
+                        });
+                        return true;
+                    }
+
+                    if(optimistic) {
+                        log.info("Revoking optimistically loaded Kraken plugins.");
+                        unloadKrakenPluginsAsync();
+                    }
+
+                    log.info("User auth failed. Disconnecting discord.");
+                    SwingUtilities.invokeLater(() -> resetDiscordButton(discordButton));
+                    return false;
+                });
+    }
+
+    private static boolean hasCachedCredentials(CognitoUser user) {
+        return user.isAccountEnabled()
+                && user.getCredentials().getAccessToken() != null
+                && user.getCredentials().getRefreshToken() != null;
     }
 
     /**
@@ -122,12 +237,16 @@ public class KrakenLoaderPlugin extends Plugin {
             log.info("Starting OAuth 2.0 flow with Discord.");
             JButton btn = (JButton) e.getSource();
             discordAuth.getDiscordUser()
-                    .thenAccept(user -> {
+                    .thenCompose(user -> {
                         log.info("Discord OAuth flow completed. User email = {}. Creating new cognito user.", user.getEmail());
-                        CognitoUser cognitoUser = krakenClient.createUser(new CreateUserRequest(user));
+                        return krakenClient.createUserAsync(new CreateUserRequest(user));
+                    })
+                    .thenAccept(cognitoUser -> {
                         credentialManager.persistUserCredentials(cognitoUser);
-                        btn.addActionListener(evt -> disconnectDiscord(cognitoUser, btn));
-                        btn.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
+                        SwingUtilities.invokeLater(() -> {
+                            setDiscordAction(btn, evt -> disconnectDiscord(cognitoUser, btn));
+                            btn.setText(DISCONNECT_DISCORD_BUTTON_TEXT);
+                        });
                     })
                     .exceptionally(throwable -> {
                         log.error("Authentication failed: {}", throwable.getMessage());
@@ -144,15 +263,38 @@ public class KrakenLoaderPlugin extends Plugin {
      */
     private void disconnectDiscord(CognitoUser user, JButton discordButton) {
         krakenClient.updateUserStatus(user.getDiscordId(), false);
+        tokenManager.clear();
         user.setAccountEnabled(false);
         credentialManager.persistUserCredentials(user);
         resetDiscordButton(discordButton);
     }
 
 
+    @Subscribe
+    public void onKrakenPluginsChanged(KrakenPluginsChanged event) {
+        SwingUtilities.invokeLater(() -> pluginListPanelProvider.get().rebuildPluginList());
+    }
+
     @Override
     protected void shutDown() {
 		clientToolbar.removeNavigation(navButton);
+        tokenManager.clear();
+
+        // Interrupt a load in progress and drop loads which have not started, plugin starts already queued on the Swing
+        // thread are abandoned. The unload then runs as the loader's last task, after the interrupted load has
+        // returned, so shutDown never waits on the loader while holding the Swing thread.
+        pendingLoads.forEach(load -> load.cancel(true));
+        pendingLoads.clear();
+        try {
+            loaderExecutor.execute(() -> {
+                metrics.stopPeriodicDump();
+                credentialManager.flush();
+                krakenPluginManager.unloadKrakenPlugins();
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("Kraken loader has already shut down. Error = {}", e.getMessage());
+        }
+        loaderExecutor.shutdown();
     }
 
 }
\ No newline at end of file
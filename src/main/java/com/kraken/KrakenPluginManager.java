@@ -3,90 +3,308 @@ package com.kraken;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.kraken.loader.JarResourceLoader;
+import com.kraken.loader.PluginClassInfo;
+import com.kraken.loader.PluginClassLoader;
+import com.kraken.loader.PluginClassLoaderRegistry;
+import com.kraken.loader.PluginJarWatcher;
+import com.kraken.metrics.KrakenMetrics;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.eventbus.EventBus;
 import net.runelite.client.plugins.Plugin;
 import net.runelite.client.plugins.PluginInstantiationException;
 import net.runelite.client.plugins.PluginManager;
 
+import javax.swing.*;
+import java.io.IOException;
 import java.net.MalformedURLException;
-import java.util.HashMap;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @Slf4j
 @Singleton
 public class KrakenPluginManager {
 
     private final PluginManager pluginManager;
+    private final JarResourceLoader jarLoader;
+    private final EventBus eventBus;
+    private final PluginStartupScheduler startupScheduler;
+    private final KrakenMetrics metrics;
+    private PluginJarWatcher jarWatcher;
 
+    /**
+     * The plugin classes from the Kraken jars, null while the plugins are unloaded. Guarded by this object's lock, which
+     * is held for every full load, unload and hot reload so they never overlap.
+     */
     private List<Class<?>> pluginClasses;
 
+    /**
+     * Owns the class loader for each Kraken jar. Loaders stay open while their plugins are loaded into RuneLite.
+     */
     @Getter
-    private final Map<String, Plugin> pluginMap = new HashMap<>();
+    private final PluginClassLoaderRegistry classLoaders = new PluginClassLoaderRegistry();
+
+    private final List<Plugin> loadedPlugins = new CopyOnWriteArrayList<>();
+
+    /**
+     * Metadata for each Kraken plugin keyed by plugin name. This is built from the plugin's @PluginDescriptor without
+     * instantiating the plugin and is used to distinguish Kraken vs RL plugins in the UI.
+     */
+    @Getter
+    private final Map<String, PluginClassInfo> pluginMap = new ConcurrentHashMap<>();
 
     private static final String PACKAGE_NAME = "com/krakenplugins";
 
     @Inject
-    public KrakenPluginManager(JarResourceLoader jarLoader, PluginManager pluginManager) {
+    public KrakenPluginManager(JarResourceLoader jarLoader, PluginManager pluginManager, EventBus eventBus, KrakenMetrics metrics) {
         this.pluginManager = pluginManager;
+        this.jarLoader = jarLoader;
+        this.eventBus = eventBus;
+        this.metrics = metrics;
+        this.startupScheduler = new PluginStartupScheduler(pluginManager, metrics);
 
         try {
-            this.pluginClasses = jarLoader.loadPluginClasses(PACKAGE_NAME);
-            log.info("Loaded {} Kraken plugin class{}.", pluginClasses.size(), pluginClasses.size() > 1 ? "es" : "");
-
-            for (Class<?> pluginClass : pluginClasses) {
-                // Unchecked cast is OK because the JAR loader checks that each class extends Plugin.
-                Plugin plugin = this.instantiate((Class<Plugin>) pluginClass);
-                this.pluginMap.put(plugin.getName(), plugin);
-            }
-
+            this.pluginClasses = loadPluginClasses();
             log.info("Loaded {} Kraken plugin(s)", this.pluginMap.size());
-        } catch (MalformedURLException | PluginInstantiationException e) {
+        } catch (MalformedURLException e) {
             log.error("Failed to load plugin classes from Jar file.", e);
         }
     }
 
-    /**
-     * Creates an instance of a Kraken plugin using reflection.
-     * Note: this method skips a lot of the RuneLite dependency checking and guice module bindings so this plugin won't
-     * function as a normal RuneLite plugin. However, these same plugins are loaded into RuneLite correctly
-     * with loadKrakenPlugins(). These plugins simply exist to distinguish Kraken vs RL plugins in the UI NOT to
-     * actually run in game.
-     * @param clazz Loaded class which extends the RuneLite plugin class.
-     * @return Plugin a loaded Plugin object.
-     * @throws PluginInstantiationException
-     */
-    private Plugin instantiate(Class<Plugin> clazz) throws PluginInstantiationException {
-		Plugin plugin;
-		try {
-			plugin = clazz.getDeclaredConstructor().newInstance();
-		} catch (ThreadDeath e) {
-            log.error("Thread death while trying to instantiate plugin class {}.", clazz.getName(), e);
-			throw e;
-		} catch (Throwable ex) {
-			throw new PluginInstantiationException(ex);
-		}
-
-		return plugin;
-	}
-
      /**
      * Reads the downloaded JAR files, finds the Plugin classes, and invokes RuneLite's plugin manager
      * to side load the plugins.
      */
-    public void loadKrakenPlugins() {
+    public synchronized void loadKrakenPlugins() {
         try {
-            // Load, enable, and start the plugins with RuneLite, so they can be registered with the EventBus
-            List<Plugin> plugins = pluginManager.loadPlugins(pluginClasses, null);
+            // Class loaders are released when the plugins are unloaded so the jars are discovered and the classes
+            // defined again.
+            if (pluginClasses == null) {
+                pluginClasses = loadPluginClasses();
+            }
 
-            for (Plugin plugin : plugins) {
-                pluginManager.setPluginEnabled(plugin, true);
-                pluginManager.startPlugin(plugin);
+            // Load, enable, and start the plugins with RuneLite in dependency order, so they can be registered with the EventBus
+            try (KrakenMetrics.Timer timer = metrics.time("loadAndStartPlugins")) {
+                loadedPlugins.addAll(startupScheduler.loadAndStart(pluginClasses));
             }
+            recordClassLoaderMetrics();
         } catch(Exception e) {
             log.error("Exception thrown while attempting to invoke ExternalPluginManager refresh. Error = {}", e.getMessage());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Discovers the Kraken jars, loads their plugin classes and records each plugin's metadata.
+     * @return List of Plugin classes.
+     * @throws MalformedURLException
+     */
+    private List<Class<?>> loadPluginClasses() throws MalformedURLException {
+        List<Class<?>> classes = new ArrayList<>(jarLoader.loadPluginClasses(PACKAGE_NAME, classLoaders));
+        log.info("Loaded {} Kraken plugin class{}.", classes.size(), classes.size() > 1 ? "es" : "");
+
+        for (Class<?> pluginClass : classes) {
+            PluginClassInfo info = jarLoader.getPluginInfo(pluginClass);
+            pluginMap.put(info.getName(), info);
+        }
+        return classes;
+    }
+
+    /**
+     * Records the classes defined and bytes read by each Kraken jar's class loader and writes a metrics snapshot.
+     */
+    private void recordClassLoaderMetrics() {
+        for (PluginClassLoader loader : classLoaders.getLoaders()) {
+            String jarName = Paths.get(loader.getJarPath()).getFileName().toString();
+            metrics.set("classesLoaded:" + jarName, loader.getDefinedClassCount());
+            metrics.set("bytesRead:" + jarName, loader.getBytesRead());
+        }
+        metrics.set("pluginsLoaded", loadedPlugins.size());
+        metrics.writeSnapshot();
+    }
+
+    /**
+     * Stops every Kraken plugin, removes it from RuneLite's plugin manager and then closes the class loader of each
+     * Kraken jar. The enabled state of each plugin is left untouched so plugins resume on the next load.
+     */
+    public synchronized void unloadKrakenPlugins() {
+        stopWatching();
+
+        for (Plugin plugin : loadedPlugins) {
+            try {
+                pluginManager.stopPlugin(plugin);
+            } catch (PluginInstantiationException e) {
+                log.error("Failed to stop plugin: {}. Error = {}", plugin.getName(), e.getMessage());
+            }
+            pluginManager.remove(plugin);
+        }
+
+        log.info("Unloaded {} Kraken plugin(s). Class loader usage = {}", loadedPlugins.size(), classLoaders.getDefinedClassCounts());
+        loadedPlugins.clear();
+        pluginClasses = null;
+        classLoaders.releaseAll();
+    }
+
+    /**
+     * Starts watching the Kraken plugin directories so JARs which are added, changed or removed while the client is
+     * running are hot reloaded without touching any other plugin.
+     * @param executor Executor the executor hot reloads run on, the same one plugins are loaded and unloaded on.
+     */
+    public synchronized void startWatching(Executor executor) {
+        if (jarWatcher != null) {
+            return;
+        }
+
+        jarWatcher = new PluginJarWatcher(jarLoader.getJarDirectories(), changes -> {
+            try {
+                executor.execute(() -> reloadJars(changes));
+            } catch (RejectedExecutionException e) {
+                log.debug("Kraken loader has shut down, ignoring plugin jar changes.");
+            }
+        });
+        try {
+            jarWatcher.start();
+        } catch (IOException e) {
+            log.error("Failed to start watching Kraken plugin jars. Error = {}", e.getMessage());
+            jarWatcher = null;
+        }
+    }
+
+    /**
+     * Stops watching the Kraken plugin directories. Once this returns no further hot reloads are submitted.
+     */
+    public synchronized void stopWatching() {
+        if (jarWatcher != null) {
+            jarWatcher.stop();
+            jarWatcher = null;
+        }
+    }
+
+    /**
+     * Unloads the plugins from JARs which were changed or removed and then loads and starts the plugins from JARs
+     * which were added or changed. Plugins from every other JAR keep running. Plugins from changed JARs are only
+     * started again if they are still enabled, plugins from new JARs are enabled and started. Changes which arrive
+     * after the plugins were unloaded are ignored, the next full load discovers the jars again.
+     * @param changes PluginJarWatcher.Changes the JARs which were added, changed or removed.
+     */
+    private synchronized void reloadJars(PluginJarWatcher.Changes changes) {
+        if (pluginClasses == null) {
+            return;
+        }
+
+        List<String> staleJars = new ArrayList<>(changes.getChanged());
+        staleJars.addAll(changes.getRemoved());
+
+        List<Plugin> removed = new ArrayList<>();
+        for (Plugin plugin : loadedPlugins) {
+            if (staleJars.contains(classLoaders.jarFor(plugin.getClass()))) {
+                removed.add(plugin);
+            }
+        }
+
+        boolean stopped = runOnSwingThread(() -> {
+            for (Plugin plugin : removed) {
+                try {
+                    pluginManager.stopPlugin(plugin);
+                } catch (PluginInstantiationException e) {
+                    log.error("Failed to stop plugin: {}. Error = {}", plugin.getName(), e.getMessage());
+                }
+                pluginManager.remove(plugin);
+                pluginMap.remove(plugin.getName());
+            }
+        });
+
+        if (!stopped) {
+            // Interrupted because the loader is shutting down, the unload which follows stops every loaded plugin.
+            return;
+        }
+
+        loadedPlugins.removeAll(removed);
+        pluginClasses.removeIf(clazz -> staleJars.contains(classLoaders.jarFor(clazz)));
+        staleJars.forEach(classLoaders::release);
+
+        List<String> freshJars = new ArrayList<>(changes.getAdded());
+        freshJars.addAll(changes.getChanged());
+        List<Plugin> added = new ArrayList<>();
+
+        if (!freshJars.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            try {
+                List<Class<?>> classes = jarLoader.loadPluginClasses(PACKAGE_NAME, classLoaders, freshJars);
+                added.addAll(pluginManager.loadPlugins(classes, null));
+                pluginClasses.addAll(classes);
+                loadedPlugins.addAll(added);
+            } catch (PluginInstantiationException e) {
+                log.error("Failed to load plugins from changed Kraken jars. Error = {}", e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        runOnSwingThread(() -> {
+            for (Plugin plugin : added) {
+                PluginClassInfo info = jarLoader.getPluginInfo(plugin.getClass());
+                pluginMap.put(info.getName(), info);
+                String jarPath = classLoaders.jarFor(plugin.getClass());
+                try {
+                    if (changes.getAdded().contains(jarPath)) {
+                        pluginManager.setPluginEnabled(plugin, true);
+                    }
+
+                    if (pluginManager.isPluginEnabled(plugin)) {
+                        pluginManager.startPlugin(plugin);
+                    }
+                } catch (PluginInstantiationException e) {
+                    log.error("Failed to start plugin: {}. Error = {}", plugin.getName(), e.getMessage());
+                }
+            }
+        });
+
+        log.info("Hot reloaded Kraken plugins. Unloaded = {}, loaded = {}", removed.size(), added.size());
+        eventBus.post(new KrakenPluginsChanged(added, removed));
+    }
+
+    /**
+     * RuneLite expects plugins to be started and stopped on the Swing event dispatch thread. When the calling thread
+     * is interrupted while waiting the runnable is skipped if it has not started yet.
+     * @return boolean false when the calling thread was interrupted before the runnable finished.
+     */
+    private static boolean runOnSwingThread(Runnable runnable) {
+        if (SwingUtilities.isEventDispatchThread()) {
+            runnable.run();
+            return true;
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        SwingUtilities.invokeLater(() -> {
+            if (done.isCancelled()) {
+                return;
+            }
+
+            try {
+                runnable.run();
+                done.complete(null);
+            } catch (Throwable e) {
+                done.completeExceptionally(e);
+            }
+        });
+
+        try {
+            done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done.cancel(false);
+            return false;
+        } catch (ExecutionException e) {
+            log.error("Exception thrown on the Swing thread. Error = {}", e.getCause().getMessage());
+            e.getCause().printStackTrace();
+        }
+        return true;
+    }
 }
@@ -0,0 +1,15 @@
+package com.kraken;
+
+import lombok.Value;
+import net.runelite.client.plugins.Plugin;
+
+import java.util.List;
+
+/**
+ * Posted to the EventBus after Kraken plugin jars have been hot reloaded.
+ */
+@Value
+public class KrakenPluginsChanged {
+    List<Plugin> added;
+    List<Plugin> removed;
+}
@@ -0,0 +1,252 @@
+package com.kraken;
+
+import com.kraken.metrics.KrakenMetrics;
+import lombok.extern.slf4j.Slf4j;
+import net.runelite.client.plugins.Plugin;
+import net.runelite.client.plugins.PluginDependency;
+import net.runelite.client.plugins.PluginManager;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads and starts Kraken plugins in waves built from their @PluginDependency graph. Each wave only contains plugins
+ * whose Kraken dependencies were started by an earlier wave.
+ *
+ * Within a wave plugins are instantiated (constructors, static initializers and Guice child injectors) concurrently
+ * on a small bounded pool. RuneLite requires startPlugin to run on the Swing event dispatch thread so the startUp
+ * calls themselves are always serialized, but every load and start is bounded by a per plugin timeout. A plugin
+ * which fails or times out only causes the plugins which depend on it to be skipped.
+ */
+@Slf4j
+public class PluginStartupScheduler {
+    private static final long LOAD_TIMEOUT_SECONDS = 15;
+    private static final long START_TIMEOUT_SECONDS = 15;
+    private static final int MAX_LOAD_THREADS = 4;
+
+    private final PluginManager pluginManager;
+    private final KrakenMetrics metrics;
+
+    public PluginStartupScheduler(PluginManager pluginManager, KrakenMetrics metrics) {
+        this.pluginManager = pluginManager;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Loads every plugin class into RuneLite, enables it and starts it in dependency order. When the calling thread is
+     * interrupted starts which have not run yet are abandoned and the remaining waves are skipped.
+     * @param pluginClasses List of plugin classes to load.
+     * @return List of the plugins which were loaded, in wave order. Plugins which failed to start are still included
+     * as they are registered with RuneLite's plugin manager, plugins whose start timed out are not.
+     */
+    public List<Plugin> loadAndStart(List<Class<?>> pluginClasses) {
+        List<List<Class<?>>> waves = buildWaves(pluginClasses);
+        List<Plugin> loaded = new ArrayList<>();
+        Set<Class<?>> failed = new HashSet<>();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_LOAD_THREADS, Runtime.getRuntime().availableProcessors()), r -> {
+            Thread thread = new Thread(r, "kraken-plugin-load-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (int i = 0; i < waves.size(); i++) {
+                if (Thread.currentThread().isInterrupted()) {
+                    log.warn("Interrupted while starting Kraken plugins, skipping the remaining {} wave(s).", waves.size() - i);
+                    break;
+                }
+
+                List<Class<?>> wave = new ArrayList<>();
+                for (Class<?> clazz : waves.get(i)) {
+                    if (Collections.disjoint(krakenDependencies(clazz, pluginClasses), failed)) {
+                        wave.add(clazz);
+                    } else {
+                        log.warn("Skipping plugin: {} because one of its dependencies failed to start.", clazz.getSimpleName());
+                        failed.add(clazz);
+                    }
+                }
+
+                log.debug("Starting plugin wave {} of {}: {}", i + 1, waves.size(), wave);
+                Map<Class<?>, Plugin> plugins = loadWave(wave, executor, failed);
+                startWave(plugins, failed);
+                loaded.addAll(plugins.values());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return loaded;
+    }
+
+    /**
+     * Instantiates each plugin in a wave concurrently. Results are returned in the order of the wave.
+     */
+    private Map<Class<?>, Plugin> loadWave(List<Class<?>> wave, ExecutorService executor, Set<Class<?>> failed) {
+        Map<Class<?>, CompletableFuture<List<Plugin>>> futures = new LinkedHashMap<>();
+        for (Class<?> clazz : wave) {
+            futures.put(clazz, CompletableFuture.supplyAsync(() -> {
+                try (KrakenMetrics.Timer timer = metrics.time("instantiate:" + clazz.getSimpleName())) {
+                    return pluginManager.loadPlugins(Collections.singletonList(clazz), null);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, executor));
+        }
+
+        Map<Class<?>, Plugin> plugins = new LinkedHashMap<>();
+        futures.forEach((clazz, future) -> {
+            try {
+                List<Plugin> result = future.get(LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (!result.isEmpty()) {
+                    plugins.put(clazz, result.get(0));
+                }
+            } catch (TimeoutException e) {
+                log.error("Timed out after {}s loading plugin: {}", LOAD_TIMEOUT_SECONDS, clazz.getSimpleName());
+                failed.add(clazz);
+                // If the plugin finishes loading later make sure it does not linger in RuneLite's plugin list.
+                future.thenAccept(late -> late.forEach(pluginManager::remove));
+            } catch (ExecutionException e) {
+                log.error("Failed to load plugin: {}. Error = {}", clazz.getSimpleName(), e.getCause().getMessage());
+                failed.add(clazz);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.add(clazz);
+                future.thenAccept(late -> late.forEach(pluginManager::remove));
+            }
+        });
+        return plugins;
+    }
+
+    /**
+     * Enables and starts each plugin in a wave. Starts are dispatched to the Swing event dispatch thread and waited on
+     * with a timeout. When already on the event dispatch thread plugins are started directly.
+     *
+     * A start which times out is abandoned and its plugin is dropped from the wave: if the start has not run yet it is
+     * skipped, if it is still running the plugin is stopped once it finishes. Either way the plugin is removed from
+     * RuneLite's plugin manager on the event dispatch thread so it never ends up running without being tracked.
+     */
+    private void startWave(Map<Class<?>, Plugin> plugins, Set<Class<?>> failed) {
+        boolean onSwingThread = SwingUtilities.isEventDispatchThread();
+        Map<Class<?>, CompletableFuture<Void>> starts = new LinkedHashMap<>();
+
+        plugins.forEach((clazz, plugin) -> {
+            CompletableFuture<Void> started = new CompletableFuture<>();
+            Runnable start = () -> {
+                if (started.isCancelled()) {
+                    pluginManager.remove(plugin);
+                    return;
+                }
+
+                long begin = System.nanoTime();
+                try {
+                    pluginManager.setPluginEnabled(plugin, true);
+                    pluginManager.startPlugin(plugin);
+                    metrics.record("startPlugin:" + plugin.getName(), System.nanoTime() - begin);
+                    log.debug("Started plugin: {} in {}ms", plugin.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+                    if (!started.complete(null)) {
+                        log.warn("Plugin: {} finished starting after its start timed out, stopping it.", plugin.getName());
+                        pluginManager.stopPlugin(plugin);
+                        pluginManager.remove(plugin);
+                    }
+                } catch (Throwable e) {
+                    if (!started.completeExceptionally(e)) {
+                        pluginManager.remove(plugin);
+                    }
+                }
+            };
+
+            if (onSwingThread) {
+                start.run();
+            } else {
+                SwingUtilities.invokeLater(start);
+            }
+            starts.put(clazz, started);
+        });
+
+        starts.forEach((clazz, started) -> {
+            try {
+                started.get(START_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                log.error("Timed out after {}s starting plugin: {}", START_TIMEOUT_SECONDS, clazz.getSimpleName());
+                abandon(clazz, started, plugins, failed);
+            } catch (ExecutionException e) {
+                log.error("Failed to start plugin: {}. Error = {}", clazz.getSimpleName(), e.getCause().getMessage());
+                failed.add(clazz);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon(clazz, started, plugins, failed);
+            }
+        });
+    }
+
+    /**
+     * Cancels a start which was not waited on to completion. When the start completed in the meantime the plugin is
+     * kept, or marked failed if the start threw.
+     */
+    private static void abandon(Class<?> clazz, CompletableFuture<Void> started, Map<Class<?>, Plugin> plugins, Set<Class<?>> failed) {
+        if (started.cancel(false)) {
+            plugins.remove(clazz);
+            failed.add(clazz);
+        } else if (started.isCompletedExceptionally()) {
+            failed.add(clazz);
+        }
+    }
+
+    /**
+     * Groups plugin classes into waves using Kahn's algorithm. Dependencies on plugins which are not Kraken plugins
+     * are ignored since RuneLite has already started them. Plugins caught in a dependency cycle are placed in a final
+     * wave so RuneLite can report the cycle.
+     */
+    static List<List<Class<?>>> buildWaves(List<Class<?>> pluginClasses) {
+        Map<Class<?>, Set<Class<?>>> remaining = new LinkedHashMap<>();
+        for (Class<?> clazz : pluginClasses) {
+            remaining.put(clazz, new LinkedHashSet<>(krakenDependencies(clazz, pluginClasses)));
+        }
+
+        List<List<Class<?>>> waves = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            List<Class<?>> wave = new ArrayList<>();
+            remaining.forEach((clazz, dependencies) -> {
+                if (dependencies.isEmpty()) {
+                    wave.add(clazz);
+                }
+            });
+
+            if (wave.isEmpty()) {
+                log.warn("Dependency cycle detected between Kraken plugins: {}", remaining.keySet());
+                waves.add(new ArrayList<>(remaining.keySet()));
+                break;
+            }
+
+            wave.forEach(remaining::remove);
+            remaining.values().forEach(dependencies -> dependencies.removeAll(wave));
+            waves.add(wave);
+        }
+        return waves;
+    }
+
+    private static List<Class<?>> krakenDependencies(Class<?> clazz, List<Class<?>> pluginClasses) {
+        List<Class<?>> dependencies = new ArrayList<>();
+        for (PluginDependency dependency : clazz.getAnnotationsByType(PluginDependency.class)) {
+            if (pluginClasses.contains(dependency.value())) {
+                dependencies.add(dependency.value());
+            }
+        }
+        return dependencies;
+    }
+}
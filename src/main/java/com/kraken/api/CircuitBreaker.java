@@ -0,0 +1,114 @@
+package com.kraken.api;
+
+import com.kraken.metrics.KrakenMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A consecutive failure circuit breaker for the Kraken API. After FAILURE_THRESHOLD server or transport failures in a
+ * row the breaker opens and calls fail fast without touching the network. Once the (jittered) open period elapses a
+ * single probe call is let through, its outcome either closes the breaker again or re-opens it. The state is exposed
+ * as the "apiBreakerState" metric: 0 = closed, 1 = open, 2 = half open.
+ */
+@Slf4j
+public class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MILLIS = 30_000;
+
+    /**
+     * The open period is randomized by up to this fraction so clients which tripped together do not all probe the API
+     * at the same moment.
+     */
+    private static final double OPEN_JITTER = 0.2;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final KrakenMetrics metrics;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean probeInFlight;
+
+    public CircuitBreaker(KrakenMetrics metrics) {
+        this.metrics = metrics;
+        publish();
+    }
+
+    /**
+     * Returns true when a call may be made. While half open only a single probe call is allowed.
+     * @return boolean
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.currentTimeMillis() < openUntil) {
+                metrics.increment("apiBreakerRejected", 1);
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+            publish();
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                metrics.increment("apiBreakerRejected", 1);
+                return false;
+            }
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    /**
+     * Records a call which reached the API and got a non server error response.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            log.info("Kraken API recovered, closing circuit breaker.");
+            state = State.CLOSED;
+        }
+        publish();
+    }
+
+    /**
+     * Records a server or transport failure.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            long openMillis = (long) (OPEN_MILLIS * (1 + ThreadLocalRandom.current().nextDouble(-OPEN_JITTER, OPEN_JITTER)));
+            if (state != State.OPEN) {
+                log.warn("Kraken API failing, opening circuit breaker for {}ms after {} consecutive failures.", openMillis, consecutiveFailures);
+                metrics.increment("apiBreakerOpened", 1);
+            }
+            state = State.OPEN;
+            openUntil = System.currentTimeMillis() + openMillis;
+        }
+        publish();
+    }
+
+    /**
+     * Releases a call which was abandoned by the caller before the API responded, its outcome says nothing about the
+     * health of the API.
+     */
+    public synchronized void onAbandoned() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void publish() {
+        metrics.set("apiBreakerState", state.ordinal());
+        metrics.set("apiBreakerConsecutiveFailures", consecutiveFailures);
+    }
+}
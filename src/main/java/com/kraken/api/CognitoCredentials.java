@@ -1,5 +1,6 @@
 package com.kraken.api;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.Data;
@@ -8,6 +9,11 @@ import lombok.Data;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class CognitoCredentials {
 
+    /**
+     * Values larger than this are treated as an absolute epoch second rather than a lifetime in seconds.
+     */
+    private static final long EPOCH_SECONDS_THRESHOLD = 1_000_000_000L;
+
     @JsonProperty("refresh_token")
     private String refreshToken;
 
@@ -16,4 +22,39 @@ public class CognitoCredentials {
 
     @JsonProperty("token_expiration_seconds")
     private long expirationTimeSeconds;
+
+    /**
+     * Epoch second at which these credentials were received from the Kraken API. This is stamped locally so a relative
+     * token lifetime can be turned into an absolute expiry.
+     */
+    @JsonProperty("issued_at_seconds")
+    private long issuedAtSeconds;
+
+    /**
+     * Returns the epoch second at which the access token expires or 0 when the expiry is unknown.
+     * @return long
+     */
+    @JsonIgnore
+    public long getExpiresAtEpochSeconds() {
+        if (expirationTimeSeconds <= 0) {
+            return 0;
+        }
+
+        if (expirationTimeSeconds > EPOCH_SECONDS_THRESHOLD) {
+            return expirationTimeSeconds;
+        }
+        return issuedAtSeconds <= 0 ? 0 : issuedAtSeconds + expirationTimeSeconds;
+    }
+
+    /**
+     * Returns true when an access token is present and will still be valid after the given margin.
+     * @param nowEpochSeconds long the current epoch second.
+     * @param marginSeconds long how long the token must remain valid for.
+     * @return boolean
+     */
+    @JsonIgnore
+    public boolean isAccessTokenValid(long nowEpochSeconds, long marginSeconds) {
+        long expiresAt = getExpiresAtEpochSeconds();
+        return accessToken != null && expiresAt > 0 && expiresAt - marginSeconds > nowEpochSeconds;
+    }
 }
@@ -0,0 +1,224 @@
+package com.kraken.api;
+
+import com.google.inject.Singleton;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Encrypts credentials at rest with AES-GCM. The key is derived with PBKDF2 from a random secret kept in
+ * RUNELITE_DIR/kraken/vault.key, which is created on first use and readable only by the current user where the file
+ * system supports it.
+ *
+ * Key derivation and JCE initialization cost around a hundred milliseconds on a cold JVM, so derivation runs at most
+ * once per secret file per process: the derived key is cached for the lifetime of the JVM and shared by every vault
+ * using the same secret. Sealing and opening only cost a Cipher pass over the payload once the key has been derived.
+ *
+ * Sealed layout: magic (4 bytes), IV (12 bytes), ciphertext and GCM tag. The caller supplies associated data (i.e. the
+ * file name) which binds a ciphertext to where it is stored, so one sealed file cannot be swapped in for another.
+ */
+@Slf4j
+@Singleton
+public class CredentialVault {
+    public static final Path SECRET_FILE = RUNELITE_DIR.toPath().resolve("kraken").resolve("vault.key");
+
+    private static final byte[] MAGIC = {'K', 'R', 'V', '1'};
+    private static final int SECRET_LENGTH = 32;
+    private static final int SALT_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int KEY_BITS = 256;
+    /**
+     * The secret is 256 random bits rather than a password, so stretching adds little security. The iteration count is
+     * kept low to keep the one time derivation cheap.
+     */
+    private static final int ITERATIONS = 10_000;
+    private static final int SECRET_READ_ATTEMPTS = 20;
+
+    private static final Map<Path, SecretKey> KEYS = new ConcurrentHashMap<>();
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final Path secretFile;
+
+    public CredentialVault() {
+        this(SECRET_FILE);
+    }
+
+    /**
+     * @param secretFile Path the file holding the secret the key is derived from, created if it does not exist.
+     */
+    CredentialVault(Path secretFile) {
+        this.secretFile = secretFile.toAbsolutePath();
+    }
+
+    /**
+     * Derives the key if this process has not done so yet and initializes the JCE providers. Called ahead of the first
+     * load so this work runs off the caller's critical path.
+     */
+    public void prepare() {
+        try {
+            key();
+            Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (IOException | GeneralSecurityException e) {
+            log.error("Failed to derive credential vault key. Error = {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Encrypts a payload.
+     * @param plaintext byte[] the payload.
+     * @param associatedData String data the ciphertext is bound to, the same value must be passed to {@link #open}.
+     * @return byte[] the sealed payload.
+     * @throws IOException if the key cannot be derived or the payload cannot be encrypted.
+     */
+    public byte[] seal(byte[] plaintext, String associatedData) throws IOException {
+        byte[] iv = new byte[IV_LENGTH];
+        RANDOM.nextBytes(iv);
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(associatedData.getBytes(StandardCharsets.UTF_8));
+
+            byte[] sealed = new byte[MAGIC.length + IV_LENGTH + cipher.getOutputSize(plaintext.length)];
+            System.arraycopy(MAGIC, 0, sealed, 0, MAGIC.length);
+            System.arraycopy(iv, 0, sealed, MAGIC.length, IV_LENGTH);
+            cipher.doFinal(plaintext, 0, plaintext.length, sealed, MAGIC.length + IV_LENGTH);
+            return sealed;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt credentials.", e);
+        }
+    }
+
+    /**
+     * Decrypts a payload sealed by {@link #seal}.
+     * @param sealed byte[] the sealed payload.
+     * @param associatedData String the associated data the payload was sealed with.
+     * @return byte[] the plaintext.
+     * @throws IOException if the payload was not sealed with this vault's key or has been tampered with.
+     */
+    public byte[] open(byte[] sealed, String associatedData) throws IOException {
+        if (!isSealed(sealed)) {
+            throw new IOException("Payload is not sealed.");
+        }
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, sealed, MAGIC.length, IV_LENGTH));
+            cipher.updateAAD(associatedData.getBytes(StandardCharsets.UTF_8));
+            int offset = MAGIC.length + IV_LENGTH;
+            return cipher.doFinal(sealed, offset, sealed.length - offset);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt credentials.", e);
+        }
+    }
+
+    /**
+     * Returns true when a payload starts with the vault's magic bytes, false for i.e. plaintext JSON written by older
+     * versions.
+     * @param payload byte[] the payload.
+     * @return boolean
+     */
+    public static boolean isSealed(byte[] payload) {
+        return payload.length > MAGIC.length + IV_LENGTH
+                && Arrays.equals(MAGIC, Arrays.copyOf(payload, MAGIC.length));
+    }
+
+    private SecretKey key() throws IOException {
+        SecretKey key = KEYS.get(secretFile);
+        if (key != null) {
+            return key;
+        }
+
+        try {
+            return KEYS.computeIfAbsent(secretFile, file -> {
+                try {
+                    return derive(readOrCreateSecret(file));
+                } catch (IOException | GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            throw new IOException("Failed to derive credential vault key from: " + secretFile, e.getCause());
+        }
+    }
+
+    private static SecretKey derive(byte[] secret) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        byte[] salt = Arrays.copyOfRange(secret, 0, SALT_LENGTH);
+        char[] password = Base64.getEncoder().encodeToString(Arrays.copyOfRange(secret, SALT_LENGTH, secret.length)).toCharArray();
+        PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, KEY_BITS);
+        try {
+            byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            log.debug("Derived credential vault key in {}ms", (System.nanoTime() - start) / 1_000_000);
+            return new SecretKeySpec(encoded, "AES");
+        } finally {
+            spec.clearPassword();
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    /**
+     * Reads the secret, creating it if it does not exist. The file is created with CREATE_NEW so when several Kraken
+     * clients start together exactly one of them generates the secret and the others read it.
+     */
+    private static byte[] readOrCreateSecret(Path file) throws IOException {
+        byte[] secret = new byte[SALT_LENGTH + SECRET_LENGTH];
+        RANDOM.nextBytes(secret);
+
+        Files.createDirectories(file.getParent());
+        try {
+            Files.write(file, secret, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+            restrictPermissions(file);
+            log.info("Created credential vault secret at: {}", file);
+            return secret;
+        } catch (FileAlreadyExistsException e) {
+            // Another client may still be writing the secret it just created.
+            for (int attempt = 0; attempt < SECRET_READ_ATTEMPTS; attempt++) {
+                byte[] existing = Files.readAllBytes(file);
+                if (existing.length == secret.length) {
+                    return existing;
+                }
+                sleep();
+            }
+            throw new IOException("Credential vault secret at: " + file + " is corrupt.");
+        }
+    }
+
+    private static void restrictPermissions(Path file) {
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException | IOException e) {
+            log.debug("Could not restrict permissions of: {}. Error = {}", file, e.getMessage());
+        }
+    }
+
+    private static void sleep() throws IOException {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the credential vault secret.", e);
+        }
+    }
+}
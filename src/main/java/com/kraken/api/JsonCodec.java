@@ -0,0 +1,115 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.kraken.auth.DiscordTokenResponse;
+import com.kraken.auth.DiscordUser;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encodes and decodes the JSON exchanged with the Kraken API. ObjectReaders and ObjectWriters are immutable and thread
+ * safe, so one is built per type and reused for every call instead of resolving the type and its (de)serializers on
+ * each request. Readers for the DTOs used on the auth path are built up front.
+ */
+public class JsonCodec {
+    public static final TypeReference<Map<String, Boolean>> BOOLEAN_MAP = new TypeReference<Map<String, Boolean>>() {};
+
+    private final ObjectMapper mapper;
+    private final Map<JavaType, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    public JsonCodec() {
+        this(new ObjectMapper());
+    }
+
+    public JsonCodec(ObjectMapper mapper) {
+        this.mapper = mapper;
+        reader(type(CognitoUser.class));
+        reader(type(CognitoCredentials.class));
+        reader(type(DiscordTokenResponse.class));
+        reader(type(DiscordUser.class));
+        reader(type(BOOLEAN_MAP));
+    }
+
+    /**
+     * Returns the JavaType for a class. Types are cached by Jackson's TypeFactory.
+     * @param clazz Class the type to resolve.
+     * @return JavaType
+     */
+    public JavaType type(Class<?> clazz) {
+        return mapper.getTypeFactory().constructType(clazz);
+    }
+
+    /**
+     * Returns the JavaType for a generic type i.e. {@link #BOOLEAN_MAP}.
+     * @param reference TypeReference the type to resolve.
+     * @return JavaType
+     */
+    public JavaType type(TypeReference<?> reference) {
+        return mapper.getTypeFactory().constructType(reference);
+    }
+
+    /**
+     * Returns the cached reader for a type, building it on first use.
+     * @param type JavaType the type to read.
+     * @return ObjectReader
+     */
+    public ObjectReader reader(JavaType type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    /**
+     * Returns the cached writer for a class, building it on first use.
+     * @param clazz Class the type to write.
+     * @return ObjectWriter
+     */
+    public ObjectWriter writer(Class<?> clazz) {
+        return writers.computeIfAbsent(clazz, mapper::writerFor);
+    }
+
+    /**
+     * Decodes a value from a buffered JSON body.
+     * @param body byte[] the JSON to decode.
+     * @param type JavaType the type to decode into.
+     * @return The decoded value.
+     * @throws IOException When the body does not contain valid JSON for the type.
+     */
+    public <T> T read(byte[] body, JavaType type) throws IOException {
+        return reader(type).readValue(body);
+    }
+
+    /**
+     * Encodes a value to UTF-8 JSON.
+     * @param value Object the value to encode.
+     * @return byte[] the encoded JSON.
+     * @throws IOException When the value cannot be serialized.
+     */
+    public byte[] write(Object value) throws IOException {
+        return writer(value.getClass()).writeValueAsBytes(value);
+    }
+
+    /**
+     * Returns a deep copy of a value by encoding and decoding it.
+     * @param value T the value to copy.
+     * @param type JavaType the type to decode the copy as.
+     * @return T the copy.
+     * @throws IOException When the value cannot be serialized.
+     */
+    public <T> T copy(T value, JavaType type) throws IOException {
+        return reader(type).readValue(write(value));
+    }
+
+    /**
+     * Returns the underlying mapper for callers which need to read or write files.
+     * @return ObjectMapper
+     */
+    public ObjectMapper getMapper() {
+        return mapper;
+    }
+}
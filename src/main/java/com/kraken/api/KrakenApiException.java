@@ -0,0 +1,79 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Failure of a Kraken API call. Async calls complete exceptionally with this exception instead of returning null.
+ * A status code of -1 means no response was received, i.e. the request failed to send, timed out, missed its deadline
+ * or the response could not be decoded.
+ */
+@Getter
+public class KrakenApiException extends RuntimeException {
+    private final String method;
+    private final String path;
+    private final int statusCode;
+    private final String body;
+
+    public KrakenApiException(String method, String path, int statusCode, String body) {
+        super("Unexpected response code from: " + method + " request to: " + path + ", status code = " + statusCode);
+        this.method = method;
+        this.path = path;
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    public KrakenApiException(String method, String path, String message, Throwable cause) {
+        super(method + " request to: " + path + " failed. " + message, cause);
+        this.method = method;
+        this.path = path;
+        this.statusCode = -1;
+        this.body = null;
+    }
+
+    /**
+     * Returns true when the API responded with a 5xx status code or no response was received at all.
+     * @return boolean
+     */
+    public boolean isServerOrTransportError() {
+        return statusCode == -1 || statusCode >= 500;
+    }
+
+    /**
+     * Returns true when the call was abandoned because its deadline passed before a response was received.
+     * @return boolean
+     */
+    public boolean isDeadlineExceeded() {
+        return statusCode == -1 && getCause() instanceof TimeoutException;
+    }
+
+    /**
+     * Returns true when the same request may succeed if it is sent again: a 5xx or 429 response or an I/O failure
+     * before a response was received. Encoding and decoding failures are never retryable.
+     * @return boolean
+     */
+    public boolean isRetryable() {
+        if (statusCode == -1) {
+            return getCause() instanceof IOException && !(getCause() instanceof JsonProcessingException);
+        }
+        return statusCode >= 500 || statusCode == 429;
+    }
+
+    /**
+     * Returns true when a failed call may succeed later without the user doing anything: the API responded with a 5xx,
+     * could not be reached or did not respond before the deadline. A CompletionException is unwrapped first.
+     * @param error Throwable the failure an async call completed with.
+     * @return boolean
+     */
+    public static boolean isTransient(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof TimeoutException) {
+            return true;
+        }
+        return cause instanceof KrakenApiException && ((KrakenApiException) cause).isServerOrTransportError();
+    }
+}
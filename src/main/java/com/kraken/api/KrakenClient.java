@@ -1,37 +1,104 @@
 package com.kraken.api;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JavaType;
 import com.google.inject.Inject;
 import com.google.inject.Singleton;
 import com.kraken.auth.CognitoAuth;
 import com.kraken.auth.DiscordTokenResponse;
+import com.kraken.metrics.EndpointStats;
+import com.kraken.metrics.KrakenMetrics;
 import lombok.NonNull;
+import lombok.RequiredArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 @Slf4j
 @Singleton
 public class KrakenClient {
     private final HttpClient httpClient;
-    private final ObjectMapper objectMapper;
-    private static final String BASE_URL = "https://rog742w0fa.execute-api.us-east-1.amazonaws.com/prod";
+    private final JsonCodec codec;
+    private final String baseUrl;
+
+    /**
+     * The production Kraken API. Override with -Dkraken.api.url=http://localhost:8080 to run against another deployment
+     * or a local stub.
+     */
+    public static final String DEFAULT_BASE_URL = "https://rog742w0fa.execute-api.us-east-1.amazonaws.com/prod";
+
+    /**
+     * Deadline applied to async calls which do not specify their own.
+     */
+    public static final Duration DEFAULT_DEADLINE = Duration.ofSeconds(15);
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long BASE_BACKOFF_MILLIS = 250;
+    private static final long MAX_BACKOFF_MILLIS = 4_000;
+
+    private final KrakenMetrics metrics;
+    private final CircuitBreaker breaker;
+    private final RetryBudget retryBudget = new RetryBudget();
+    private final SingleFlight<FlightKey> singleFlight;
+    private final ResponseCache responseCache;
+
+    /**
+     * Maximum combined size of cached GET response bodies.
+     */
+    private static final long CACHE_MAX_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * When true cached GET responses are also written to RUNELITE_DIR/kraken/cache. Enable with -Dkraken.api.diskCache=true
+     */
+    private static final boolean DISK_CACHE = Boolean.parseBoolean(System.getProperty("kraken.api.diskCache", "false"));
+
+    /**
+     * get-user responses carry the user's Cognito credentials so they are only ever cached in memory.
+     */
+    private static final String GET_USER_PATH = "/api/v1/cognito/get-user?discordId=";
 
     @Inject
-    public KrakenClient() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(Duration.ofSeconds(10))
-                .build();
-        this.objectMapper = new ObjectMapper();
+    public KrakenClient(KrakenTransport transport, KrakenMetrics metrics) {
+        this(transport, metrics, System.getProperty("kraken.api.url", DEFAULT_BASE_URL));
+    }
+
+    /**
+     * Creates a client for a specific Kraken API deployment.
+     * @param transport KrakenTransport the shared HTTP client and codec.
+     * @param metrics KrakenMetrics the registry to publish client metrics to.
+     * @param baseUrl String the base URL of the API without a trailing slash i.e. http://127.0.0.1:8080
+     */
+    public KrakenClient(@NonNull KrakenTransport transport, @NonNull KrakenMetrics metrics, @NonNull String baseUrl) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        this.httpClient = transport.getHttpClient();
+        this.codec = transport.getCodec();
+        this.metrics = metrics;
+        this.breaker = new CircuitBreaker(metrics);
+        this.singleFlight = new SingleFlight<>(metrics);
+        this.responseCache = new ResponseCache(CACHE_MAX_BYTES, DISK_CACHE ? ResponseCache.CACHE_DIR.toPath() : null, codec.getMapper());
+    }
+
+    /**
+     * Returns the current state of the circuit breaker guarding calls to the Kraken API.
+     * @return CircuitBreaker.State
+     */
+    public CircuitBreaker.State getBreakerState() {
+        return breaker.getState();
     }
 
     /**
@@ -40,7 +107,15 @@ public class KrakenClient {
      * @return CognitoCredentials A set of credentials (access_token & refresh_token)
      */
     public CognitoUser createUser(@NonNull CreateUserRequest request) {
-        return sendRequestGeneric("POST", "/api/v1/cognito/create-user", request, CognitoUser.class);
+        return await(createUserAsync(request));
+    }
+
+    public CompletableFuture<CognitoUser> createUserAsync(@NonNull CreateUserRequest request) {
+        return createUserAsync(request, DEFAULT_DEADLINE);
+    }
+
+    public CompletableFuture<CognitoUser> createUserAsync(@NonNull CreateUserRequest request, @NonNull Duration deadline) {
+        return sendAsync("POST", "/api/v1/cognito/create-user", request, type(CognitoUser.class), deadline);
     }
 
     /**
@@ -51,7 +126,15 @@ public class KrakenClient {
      * @return CognitoCredentials A set of credentials (access_token & refresh_token)
      */
     public CognitoUser authenticate(@NonNull CognitoAuth request) {
-        return sendRequestGeneric("POST", "/api/v1/cognito/auth", request, CognitoUser.class);
+        return await(authenticateAsync(request));
+    }
+
+    public CompletableFuture<CognitoUser> authenticateAsync(@NonNull CognitoAuth request) {
+        return authenticateAsync(request, DEFAULT_DEADLINE);
+    }
+
+    public CompletableFuture<CognitoUser> authenticateAsync(@NonNull CognitoAuth request, @NonNull Duration deadline) {
+        return sendAsync("POST", "/api/v1/cognito/auth", request, type(CognitoUser.class), deadline);
     }
 
 
@@ -61,7 +144,15 @@ public class KrakenClient {
      * @return
      */
     public CognitoCredentials refreshSession(@NonNull CognitoAuth request) {
-        return sendRequestGeneric("POST", "/api/v1/cognito/refresh-session", request, CognitoCredentials.class);
+        return await(refreshSessionAsync(request));
+    }
+
+    public CompletableFuture<CognitoCredentials> refreshSessionAsync(@NonNull CognitoAuth request) {
+        return refreshSessionAsync(request, DEFAULT_DEADLINE);
+    }
+
+    public CompletableFuture<CognitoCredentials> refreshSessionAsync(@NonNull CognitoAuth request, @NonNull Duration deadline) {
+        return sendAsync("POST", "/api/v1/cognito/refresh-session", request, type(CognitoCredentials.class), deadline);
     }
 
     /**
@@ -71,7 +162,15 @@ public class KrakenClient {
      * @return
      */
     public CognitoUser getUser(@NonNull String discordId) {
-        return sendRequestGeneric("GET", "/api/v1/cognito/get-user?discordId=" + discordId, null, CognitoUser.class);
+        return await(getUserAsync(discordId));
+    }
+
+    public CompletableFuture<CognitoUser> getUserAsync(@NonNull String discordId) {
+        return getUserAsync(discordId, DEFAULT_DEADLINE);
+    }
+
+    public CompletableFuture<CognitoUser> getUserAsync(@NonNull String discordId, @NonNull Duration deadline) {
+        return sendAsync("GET", GET_USER_PATH + discordId, null, type(CognitoUser.class), deadline);
     }
 
     /**
@@ -82,13 +181,16 @@ public class KrakenClient {
      * true or false depending on if this method is being used to enable or disable an account
      */
     public Map<String, Boolean> updateUserStatus(@NonNull String discordId, boolean accountEnabled) {
-        try {
-            HttpResponse<String> response = sendRequestGeneric("PUT", "/api/v1/cognito/user-status",  "{\"discordId\":\"" + discordId + "\", \"accountEnabled\":" + accountEnabled + "}");
-            return objectMapper.readValue(response.body(), new TypeReference<>() {});
-        } catch (IOException | InterruptedException e) {
-            log.error("IOException thrown while attempting to make PUT API request to /api/v1/cognito/user-status. Error = {}", e.getMessage());
-            return null;
-        }
+        return await(updateUserStatusAsync(discordId, accountEnabled));
+    }
+
+    public CompletableFuture<Map<String, Boolean>> updateUserStatusAsync(@NonNull String discordId, boolean accountEnabled) {
+        return updateUserStatusAsync(discordId, accountEnabled, DEFAULT_DEADLINE);
+    }
+
+    public CompletableFuture<Map<String, Boolean>> updateUserStatusAsync(@NonNull String discordId, boolean accountEnabled, @NonNull Duration deadline) {
+        // The cached get-user response still carries the old status.
+        return sendAsync("PUT", "/api/v1/cognito/user-status", new UpdateUserStatusRequest(discordId, accountEnabled), codec.type(JsonCodec.BOOLEAN_MAP), deadline, GET_USER_PATH + discordId);
     }
 
     /**
@@ -97,7 +199,7 @@ public class KrakenClient {
      * @return DiscordTokenResponse a set of discord credentials (access token, refresh token, expiration timestamp etc...)
      */
     public DiscordTokenResponse postDiscordOAuthCode(@NonNull DiscordOAuthRequest request) {
-        DiscordTokenResponse res = sendRequestGeneric("POST", "/api/v1/discord/oauth", request, DiscordTokenResponse.class);
+        DiscordTokenResponse res = await(postDiscordOAuthCodeAsync(request));
         if(res != null) {
             return res;
         }
@@ -105,66 +207,348 @@ public class KrakenClient {
         return null;
     }
 
+    public CompletableFuture<DiscordTokenResponse> postDiscordOAuthCodeAsync(@NonNull DiscordOAuthRequest request) {
+        return postDiscordOAuthCodeAsync(request, DEFAULT_DEADLINE);
+    }
+
+    public CompletableFuture<DiscordTokenResponse> postDiscordOAuthCodeAsync(@NonNull DiscordOAuthRequest request, @NonNull Duration deadline) {
+        return sendAsync("POST", "/api/v1/discord/oauth", request, type(DiscordTokenResponse.class), deadline);
+    }
+
     /**
-     * Sends a POST request to the provided endpoint with a generic pre-encoded JSON string body. This is useful
-     * when we don't want to create a class for an object to send in a simple request.
-     * @param path
-     * @param jsonBody String the json body to send in the POST request.
-     * @return
+     * Opens a streaming GET request for a file download. The response body is returned as an InputStream so large
+     * files are never buffered in memory. When an offset is provided a Range header is sent to resume a partial
+     * download, callers must check for a 206 status code before appending to the partial file.
+     * @param uri URI the file to download.
+     * @param offset long the number of bytes already downloaded or 0 to download the whole file.
+     * @return HttpResponse with a streaming body which must be closed by the caller.
      * @throws IOException
      * @throws InterruptedException
      */
-    private HttpResponse<String> sendRequestGeneric(String method, String path, String jsonBody) throws IOException, InterruptedException {
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(BASE_URL + path))
-                .header("Content-Type", "application/json")
-                .method(method, jsonBody == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
-
-        HttpResponse<String> res = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        log.info("[{}] - {} - Status Code = {}", method, path, res.statusCode());
+    public HttpResponse<InputStream> openDownload(@NonNull URI uri, long offset) throws IOException, InterruptedException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(uri)
+                .GET();
 
-        if(res.statusCode() < 200 || res.statusCode() > 399) {
-            log.error("Unexpected response code from: {} request to: {}, status code = {}, body: {}", method, path, res.statusCode(), res.body());
+        if(offset > 0) {
+            builder.header("Range", "bytes=" + offset + "-");
         }
 
+        HttpResponse<InputStream> res = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofInputStream());
+        log.info("[GET] - {} - Status Code = {}", uri.getPath(), res.statusCode());
         return res;
     }
 
-    private HttpResponse<String> sendRequestGeneric(String method, String path, Object body) {
+    private JavaType type(Class<?> clazz) {
+        return codec.type(clazz);
+    }
+
+    /**
+     * Waits for an async call to complete for the blocking API. Failures are logged and returned as null.
+     * @param future CompletableFuture the in flight call.
+     * @return The result of the call or null if it failed.
+     */
+    private <T> T await(CompletableFuture<T> future) {
         try {
-            if(body == null) {
-                return sendRequestGeneric(method, path, null);
-            }
-            return sendRequestGeneric(method, path, objectMapper.writeValueAsString(body));
-        } catch(JsonProcessingException e) {
-            log.error("Failed to write body of request to json. Error = {}", e.getMessage());
-            e.printStackTrace();
+            return future.join();
+        } catch (CompletionException | CancellationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.error("Kraken API request failed. Error = {}", cause.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sends a request to the Kraken API without blocking the calling thread. The returned future completes with the
+     * decoded response body or exceptionally with a {@link KrakenApiException} when the request fails, returns a
+     * non 2xx/3xx status code or the response cannot be decoded. The deadline covers the whole call including
+     * retries, cancelling the returned future also cancels the in flight HTTP exchange.
+     *
+     * Concurrent identical calls (same method, path and body) are coalesced into a single HTTP exchange, callers
+     * which joined an in flight call receive their own copy of the response.
+     *
+     * Idempotent calls which fail with a retryable error are retried with exponential backoff and full jitter while
+     * the deadline and the shared retry budget allow it. Every call goes through the circuit breaker so calls fail fast
+     * while the API is down.
+     * @param method String the HTTP method.
+     * @param path String the path (and query string) to call.
+     * @param body Object the request body to encode as JSON. May be null.
+     * @param type JavaType the type to decode the response body into.
+     * @param deadline Duration the maximum amount of time the call may take.
+     * @return CompletableFuture of the decoded response body.
+     */
+    private <T> CompletableFuture<T> sendAsync(String method, String path, Object body, JavaType type, Duration deadline) {
+        return sendAsync(method, path, body, type, deadline, null);
+    }
+
+    /**
+     * Sends a call which changes a resource the response cache may hold.
+     * @param invalidates String the path (and query string) of the cached GET response to drop once the call succeeds,
+     *                    before the returned future completes. May be null.
+     */
+    private <T> CompletableFuture<T> sendAsync(String method, String path, Object body, JavaType type, Duration deadline, String invalidates) {
+        byte[] jsonBody;
+        try {
+            jsonBody = body == null ? null : codec.write(body);
         } catch(IOException e) {
-            log.error("IOException thrown while attempting to send request: method={}, path={}, error={}", method, path, e.getMessage());
-            e.printStackTrace();
-        } catch(InterruptedException e) {
-            log.error("Interrupted exception thrown while attempting to send request: method={}, path={}, error={}", method, path, e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to write body of request to json. Error = {}", e.getMessage());
+            return CompletableFuture.failedFuture(new KrakenApiException(method, path, "Failed to encode request body.", e));
         }
-        return null;
+
+        FlightKey key = new FlightKey(method, path, jsonBody);
+        CompletableFuture<T> result = singleFlight.execute(key, () -> {
+            Call<T> call = new Call<>(method, path, jsonBody, type, System.nanoTime() + deadline.toNanos(), endpointStats(method, path), invalidates);
+            return dispatch(call, deadline);
+        }, value -> {
+            try {
+                return codec.copy(value, type);
+            } catch (IOException e) {
+                throw new KrakenApiException(method, path, "Failed to copy coalesced response.", e);
+            }
+        });
+        return withDeadline(result, method, path, deadline);
     }
 
-    private <T> T sendRequestGeneric(String method, String path, Object body, Class<T> deserializationClass)  {
-        HttpResponse<String> response = sendRequestGeneric(method, path, body);
+    private <T> CompletableFuture<T> dispatch(Call<T> call, Duration deadline) {
+        if ("GET".equals(call.method)) {
+            ResponseCache.Entry cached = responseCache.get(call.path);
+            if (cached != null && cached.isFresh()) {
+                metrics.increment("apiCacheHits", 1);
+                try {
+                    return CompletableFuture.completedFuture(codec.read(cached.getBody(), call.type));
+                } catch (IOException e) {
+                    responseCache.remove(call.path);
+                }
+            }
+        }
 
-        if(response == null) {
-            return null;
+        retryBudget.deposit();
+        attempt(call, 1);
+
+        CompletableFuture<T> bounded = withDeadline(call.result, call.method, call.path, deadline);
+        bounded.whenComplete((value, error) -> {
+            CompletableFuture<?> exchange = call.exchange;
+            if (exchange != null && (bounded.isCancelled() || (error instanceof KrakenApiException && ((KrakenApiException) error).isDeadlineExceeded()))) {
+                exchange.cancel(true);
+            }
+        });
+        return bounded;
+    }
+
+    /**
+     * Fails the future with a KrakenApiException once the deadline passes, so callers see the same typed failure for a
+     * missed deadline as for any other transport error. The future itself is returned, cancelling it still cancels the
+     * call.
+     */
+    private static <T> CompletableFuture<T> withDeadline(CompletableFuture<T> future, String method, String path, Duration deadline) {
+        if (!future.isDone()) {
+            CompletableFuture.delayedExecutor(deadline.toMillis(), TimeUnit.MILLISECONDS).execute(() ->
+                    future.completeExceptionally(new KrakenApiException(method, path, "Deadline of " + deadline.toMillis() + "ms exceeded.", new TimeoutException())));
+        }
+        return future;
+    }
+
+    /**
+     * Identifies identical calls for request coalescing. Lombok compares the body by content.
+     */
+    @Value
+    private static class FlightKey {
+        String method;
+        String path;
+        byte[] body;
+    }
+
+    /**
+     * State shared by every attempt of a single call.
+     */
+    @RequiredArgsConstructor
+    private static class Call<T> {
+        private final String method;
+        private final String path;
+        private final byte[] jsonBody;
+        private final JavaType type;
+        private final long deadlineNanos;
+        private final EndpointStats stats;
+        private final String invalidates;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private volatile CompletableFuture<?> exchange;
+    }
+
+    private <T> void attempt(Call<T> call, int attemptNumber) {
+        if (call.result.isDone()) {
+            return;
+        }
+
+        if (!breaker.tryAcquire()) {
+            call.result.completeExceptionally(new KrakenApiException(call.method, call.path, "Circuit breaker is open, the Kraken API is unavailable.", null));
+            return;
+        }
+
+        long remainingNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(1), call.deadlineNanos - System.nanoTime());
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + call.path))
+                .header("Content-Type", "application/json")
+                .timeout(Duration.ofNanos(remainingNanos))
+                .method(call.method, call.jsonBody == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofByteArray(call.jsonBody));
+
+        ResponseCache.Entry cached = "GET".equals(call.method) ? responseCache.get(call.path) : null;
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                builder.header("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                builder.header("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        HttpRequest request = builder.build();
+
+        // The body is collected by the HttpClient before the exchange completes, so the callback below never blocks one
+        // of the client's executor threads reading from the connection.
+        long sentNanos = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> exchange = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        call.exchange = exchange;
+        exchange.whenComplete((res, error) -> {
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof CancellationException) {
+                breaker.onAbandoned();
+                return;
+            }
+            call.stats.record(System.nanoTime() - sentNanos, res == null ? -1 : res.statusCode());
+
+            KrakenApiException failure = null;
+            if (cause != null) {
+                log.error("Exception thrown while attempting to send request: method={}, path={}, error={}", call.method, call.path, cause.getMessage());
+                failure = new KrakenApiException(call.method, call.path, cause.getMessage(), cause);
+            } else {
+                log.info("[{}] - {} - Status Code = {}", call.method, call.path, res.statusCode());
+                if(res.statusCode() < 200 || res.statusCode() > 399) {
+                    String body = readErrorBody(res);
+                    log.error("Unexpected response code from: {} request to: {}, status code = {}, body: {}", call.method, call.path, res.statusCode(), body);
+                    failure = new KrakenApiException(call.method, call.path, res.statusCode(), body);
+                }
+            }
+
+            if (failure != null && failure.isServerOrTransportError()) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess();
+            }
+
+            if (failure == null) {
+                if (call.invalidates != null) {
+                    responseCache.remove(call.invalidates);
+                }
+
+                try {
+                    call.result.complete("GET".equals(call.method) ? decodeCacheable(call, res, cached) : decode(call.method, call.path, res, call.type));
+                } catch (KrakenApiException e) {
+                    call.result.completeExceptionally(e);
+                }
+                return;
+            }
+
+            if (attemptNumber < MAX_ATTEMPTS && failure.isRetryable() && isIdempotent(call.method, call.path)) {
+                long delayMillis = Math.max(backoffMillis(attemptNumber), res == null ? 0 : retryAfterMillis(res));
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) >= call.deadlineNanos) {
+                    log.debug("Not retrying {} {}, the deadline would pass before the next attempt.", call.method, call.path);
+                } else if (!retryBudget.tryWithdraw()) {
+                    metrics.increment("apiRetryBudgetExhausted", 1);
+                    log.warn("Retry budget exhausted, not retrying {} {}", call.method, call.path);
+                } else {
+                    metrics.increment("apiRetries", 1);
+                    log.warn("Retrying {} {} in {}ms (attempt {} of {})", call.method, call.path, delayMillis, attemptNumber + 1, MAX_ATTEMPTS);
+                    CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> attempt(call, attemptNumber + 1));
+                    return;
+                }
+            }
+            call.result.completeExceptionally(failure);
+        });
+    }
+
+    /**
+     * Returns the statistics for an endpoint. The query string is dropped so i.e. every get-user lookup is recorded
+     * against the same path template.
+     */
+    private EndpointStats endpointStats(String method, String path) {
+        int query = path.indexOf('?');
+        return metrics.endpoint(method + " " + (query == -1 ? path : path.substring(0, query)));
+    }
+
+    /**
+     * Only calls which can safely be repeated are retried. GET and PUT are idempotent by definition and authenticating
+     * does not change any state on the server. Creating users, refreshing sessions (which rotates the refresh token)
+     * and exchanging single use discord codes are never retried.
+     */
+    private static boolean isIdempotent(String method, String path) {
+        return "GET".equals(method) || "PUT".equals(method) || ("POST".equals(method) && path.equals("/api/v1/cognito/auth"));
+    }
+
+    /**
+     * Exponential backoff with full jitter, a random delay between 0 and min(cap, base * 2^(attempt - 1)) so clients
+     * which failed together spread their retries out instead of retrying in lockstep.
+     */
+    private static long backoffMillis(int attempt) {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private static long retryAfterMillis(HttpResponse<?> response) {
+        return response.headers().firstValue("Retry-After")
+                .map(value -> {
+                    try {
+                        return Math.min(MAX_BACKOFF_MILLIS, TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim())));
+                    } catch (NumberFormatException e) {
+                        return 0L;
+                    }
+                })
+                .orElse(0L);
+    }
+
+    /**
+     * Decodes the response body with the cached reader for the type.
+     */
+    private <T> T decode(String method, String path, HttpResponse<byte[]> response, JavaType type) {
+        try {
+            return codec.read(response.body(), type);
+        } catch (IOException e) {
+            throw new KrakenApiException(method, path, "Error deserializing response to POJO. Status code = " + response.statusCode(), e);
         }
+    }
 
+    /**
+     * Decodes a GET response through the response cache. A 304 is answered from the cached body, any other response
+     * is cached before it is decoded. A 304 to a request which carried no validators has no body to answer from and
+     * fails the call without touching the cache.
+     */
+    private <T> T decodeCacheable(Call<T> call, HttpResponse<byte[]> response, ResponseCache.Entry cached) {
         try {
-            if(response.body() != null) {
-                return objectMapper.readValue(response.body(), deserializationClass);
+            byte[] body;
+            if (response.statusCode() == 304 && cached == null) {
+                throw new KrakenApiException(call.method, call.path, "Received 304 Not Modified without a cached response.", null);
+            } else if (response.statusCode() == 304) {
+                metrics.increment("apiCacheRevalidated", 1);
+                responseCache.revalidated(cached, response.headers(), isPersistable(call.path));
+                body = cached.getBody();
+            } else {
+                metrics.increment("apiCacheMisses", 1);
+                body = response.body();
+                responseCache.put(call.path, response.headers(), body, isPersistable(call.path));
             }
-            log.error("Cannot deserialize null response body into class: {}", deserializationClass.getName());
-        } catch (Exception e) {
-            throw new RuntimeException("Error deserializing response to POJO. Status code = " + response.statusCode(), e);
+            metrics.set("apiCacheBytes", responseCache.getTotalBytes());
+            return codec.read(body, call.type);
+        } catch (IOException e) {
+            throw new KrakenApiException(call.method, call.path, "Error deserializing response to POJO. Status code = " + response.statusCode(), e);
         }
-        return null;
+    }
+
+    /**
+     * Returns false for responses which must never be written to the disk cache because they carry credentials.
+     */
+    private static boolean isPersistable(String path) {
+        return !path.startsWith(GET_USER_PATH);
+    }
+
+    private static String readErrorBody(HttpResponse<byte[]> response) {
+        return response.body() == null ? null : new String(response.body(), StandardCharsets.UTF_8);
     }
 }
@@ -1,90 +1,600 @@
 package com.kraken.api;
 
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.JavaType;
+import com.google.inject.Inject;
 import com.google.inject.Singleton;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import static net.runelite.client.RuneLite.RUNELITE_DIR;
 
+/**
+ * Stores Cognito credentials for any number of discord accounts, one of which is the active account. Accounts live in
+ * RUNELITE_DIR/kraken/accounts: index.json maps each discord id to its own credentials file and records the active
+ * account, so looking up an account only parses the index and that account's file. Credentials written by older
+ * versions to kraken/creds.json are migrated into the store on first use.
+ *
+ * The in memory copy is authoritative: files are read at most once and every persist updates memory immediately, writes
+ * to disk are debounced so a burst of updates results in a single write per changed file. Writes go to a temporary
+ * file which is fsynced and then atomically renamed into place, so a crash or hard kill leaves either the old or the
+ * new credentials on disk but never a truncated file.
+ *
+ * Several Kraken clients on the same host share the store. The index is merged with the copy on disk under a file lock
+ * before it is written, so one client never drops the accounts stored by another.
+ *
+ * Every file is encrypted by the {@link CredentialVault}. Plaintext files written by older versions are still read and
+ * are rewritten encrypted.
+ */
 @Slf4j
 @Singleton
 public class KrakenCredentialManager {
     private static final String KRAKEN_DIR = "kraken";
-    private static final String CREDS_FILE = "creds.json";
-    private final ObjectMapper mapper;
+    private static final String ACCOUNTS_DIR = "accounts";
+    private static final String INDEX_FILE = "index.json";
+    private static final String LEGACY_CREDS_FILE = "creds.json";
+    private static final String INDEX_LOCK_FILE = "index.lock";
+    private static final String VAULT_SECRET_FILE = "vault.key";
+    private static final long WRITE_DELAY_MILLIS = 250;
+    private static final long RETRY_DELAY_MILLIS = 5_000;
 
+    /**
+     * In process monitors for each index lock file, see {@link #writeIndex(AccountIndex)}.
+     */
+    private static final Map<Path, Object> INDEX_LOCKS = new ConcurrentHashMap<>();
+
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class AccountIndex {
+        public static final int CURRENT_VERSION = 1;
+
+        private int version = CURRENT_VERSION;
+        private String activeDiscordId;
+
+        /**
+         * Accounts keyed by discord id.
+         */
+        private Map<String, AccountEntry> accounts = new LinkedHashMap<>();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class AccountEntry {
+        private String discordUsername;
+        private String file;
+        private long lastUsed;
+    }
+
+    /**
+     * An account file waiting to be written.
+     */
+    @Value
+    private static class PendingFile {
+        String discordId;
+        Path path;
+        byte[] bytes;
+    }
+
+    private final JsonCodec codec;
+    private final JavaType userType;
+    private final JavaType indexType;
+    private final Path krakenDir;
+    private final Path accountsDir;
+    private final CredentialVault vault;
+    private final ScheduledExecutorService writer;
+
+    /**
+     * Serializes writes to disk without holding the lock guarding the in memory copy during I/O. Always acquired before
+     * this object's lock.
+     */
+    private final Object writeLock = new Object();
+
+    private AccountIndex index;
+    private final Map<String, CognitoUser> users = new HashMap<>();
+    private final Set<String> dirtyAccounts = new HashSet<>();
+    private boolean indexDirty;
+    private Path migratedFile;
+    private ScheduledFuture<?> pendingWrite;
+
+    @Inject
+    public KrakenCredentialManager(KrakenTransport transport, CredentialVault vault) {
+        this(transport.getCodec(), RUNELITE_DIR.toPath().resolve(KRAKEN_DIR), vault);
+    }
 
-    public KrakenCredentialManager() {
-        this.mapper = new ObjectMapper();
+    KrakenCredentialManager(JsonCodec codec, Path krakenDir) {
+        this(codec, krakenDir, new CredentialVault(krakenDir.resolve(VAULT_SECRET_FILE)));
+    }
+
+    KrakenCredentialManager(JsonCodec codec, Path krakenDir, CredentialVault vault) {
+        this.codec = codec;
+        this.userType = codec.type(CognitoUser.class);
+        this.indexType = codec.type(AccountIndex.class);
+        this.krakenDir = krakenDir;
+        this.accountsDir = krakenDir.resolve(ACCOUNTS_DIR);
+        this.vault = vault;
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "kraken-credentials");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Derive the vault key in the background so it is usually ready by the time credentials are first loaded.
+        writer.execute(vault::prepare);
     }
 
     /**
-     * Saves a set of user (Cognito) credentials to disk.
+     * Saves a set of user (Cognito) credentials and makes the user the active account. The in memory copy is updated
+     * immediately and the write to disk is scheduled, see {@link #flush()} to write pending changes straight away.
      * @param cognitoUser The user information to save: id, username, email from discord and the access token and refresh token.
      */
     public void persistUserCredentials(CognitoUser cognitoUser) {
-        File krakenDir = new File(RUNELITE_DIR, KRAKEN_DIR);
+        if(cognitoUser == null || cognitoUser.getDiscordUsername() == null || cognitoUser.getDiscordId() == null || cognitoUser.getCredentials() == null) {
+            log.info("Cognito user data is null. Skipping persist.");
+            return;
+        }
+
+        CognitoUser copy = copy(cognitoUser);
+        synchronized (this) {
+            AccountIndex accountIndex = index();
+            String discordId = copy.getDiscordId();
+            AccountEntry entry = accountIndex.getAccounts().get(discordId);
+            if (entry == null) {
+                entry = new AccountEntry();
+                entry.setFile(fileName(discordId));
+                accountIndex.getAccounts().put(discordId, entry);
+            }
+            entry.setDiscordUsername(copy.getDiscordUsername());
+            entry.setLastUsed(System.currentTimeMillis());
+            accountIndex.setActiveDiscordId(discordId);
+
+            users.put(discordId, copy);
+            dirtyAccounts.add(discordId);
+            indexDirty = true;
+            scheduleWrite();
+        }
+    }
+
+    /**
+     * Loads the credentials and user information (discord id, username, email) of the active account.
+     * @return CognitoUser the user and their access token and refresh token for Cognito or null if no account is active.
+     */
+    public CognitoUser loadUserCredentials() {
+        String active;
+        synchronized (this) {
+            active = index().getActiveDiscordId();
+        }
+        return active == null ? null : loadAccount(active);
+    }
+
+    /**
+     * Loads the credentials of any stored account. Only that account's file is read, and only the first time.
+     * @param discordId String the discord id of the account.
+     * @return CognitoUser or null if the account is not stored.
+     */
+    public CognitoUser loadAccount(String discordId) {
+        CognitoUser user;
+        synchronized (this) {
+            user = users.get(discordId);
+            if (user == null) {
+                AccountEntry entry = index().getAccounts().get(discordId);
+                if (entry == null) {
+                    return null;
+                }
+                user = readUser(accountsDir.resolve(entry.getFile()), discordId);
+                if (user == null) {
+                    return null;
+                }
+                users.put(discordId, user);
+            }
+        }
+        return copy(user);
+    }
+
+    /**
+     * Makes a stored account the active account. Its stored credentials are returned as is so a still valid access token
+     * can be reused without authenticating again.
+     * @param discordId String the discord id of the account to switch to.
+     * @return CognitoUser the account or null if it is not stored, in which case the active account is unchanged.
+     */
+    public CognitoUser setActiveAccount(String discordId) {
+        CognitoUser user = loadAccount(discordId);
+        if (user == null) {
+            return null;
+        }
+
+        synchronized (this) {
+            AccountIndex accountIndex = index();
+            accountIndex.setActiveDiscordId(discordId);
+            accountIndex.getAccounts().get(discordId).setLastUsed(System.currentTimeMillis());
+            indexDirty = true;
+            scheduleWrite();
+        }
+        return user;
+    }
+
+    /**
+     * Returns every stored account keyed by discord id, most recently used first.
+     * @return Map of discord id to the discord username of the account.
+     */
+    public synchronized Map<String, String> getAccounts() {
+        List<Map.Entry<String, AccountEntry>> entries = new ArrayList<>(index().getAccounts().entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue().getLastUsed(), a.getValue().getLastUsed()));
+
+        Map<String, String> accounts = new LinkedHashMap<>();
+        entries.forEach(e -> accounts.put(e.getKey(), e.getValue().getDiscordUsername()));
+        return accounts;
+    }
+
+    /**
+     * Writes any pending changes to disk immediately. Called on shutdown so a debounced write is never lost.
+     */
+    public void flush() {
+        synchronized (this) {
+            if (pendingWrite == null) {
+                return;
+            }
+            pendingWrite.cancel(false);
+        }
+        writePending();
+    }
+
+    private void scheduleWrite() {
+        if (pendingWrite == null) {
+            pendingWrite = writer.schedule(this::writePending, WRITE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the pending changes. The snapshot is taken while holding the write lock so snapshots reach
+     * the disk in the order they were taken, a snapshot can never overwrite a newer one written by a concurrent flush.
+     *
+     * Account files are written first and the index last so it never points at an account file which does not exist
+     * yet. Writing stops at the first failure: everything not yet written is marked dirty again and retried later.
+     */
+    private void writePending() {
+        synchronized (writeLock) {
+            List<PendingFile> plaintext = new ArrayList<>();
+            AccountIndex indexSnapshot = null;
+            Path legacyFile;
+            synchronized (this) {
+                pendingWrite = null;
+                try {
+                    for (String discordId : dirtyAccounts) {
+                        AccountEntry entry = index.getAccounts().get(discordId);
+                        plaintext.add(new PendingFile(discordId, accountsDir.resolve(entry.getFile()), codec.write(users.get(discordId))));
+                    }
+                    if (indexDirty) {
+                        indexSnapshot = codec.copy(index, indexType);
+                    }
+                } catch (IOException e) {
+                    log.error("Failed to encode credentials. Error = {}", e.getMessage());
+                    return;
+                }
+                dirtyAccounts.clear();
+                indexDirty = false;
+                legacyFile = migratedFile;
+                migratedFile = null;
+            }
 
-        if (!krakenDir.exists()) {
+            // Sealing may derive the vault key, which is slow, so it happens outside this object's lock.
+            List<PendingFile> files = new ArrayList<>();
             try {
-                Files.createDirectories(krakenDir.toPath());
+                for (PendingFile file : plaintext) {
+                    String fileName = file.getPath().getFileName().toString();
+                    files.add(new PendingFile(file.getDiscordId(), file.getPath(), vault.seal(file.getBytes(), fileName)));
+                }
             } catch (IOException e) {
-                log.error("IOException thrown while trying to create the Kraken directory at path: {}. Error = {}", krakenDir.getPath(), e.getMessage());
-                e.printStackTrace();
+                log.error("Failed to encrypt credentials. Error = {}", e.getMessage());
+                retryLater(plaintext, indexSnapshot != null, legacyFile);
+                return;
+            }
+
+            for (int i = 0; i < files.size(); i++) {
+                if (!writeAtomically(files.get(i).getPath(), files.get(i).getBytes())) {
+                    retryLater(files.subList(i, files.size()), indexSnapshot != null, legacyFile);
+                    return;
+                }
+            }
+
+            if (indexSnapshot != null && !writeIndex(indexSnapshot)) {
+                retryLater(Collections.emptyList(), true, legacyFile);
+                return;
+            }
+
+            if (legacyFile != null) {
+                try {
+                    Files.deleteIfExists(legacyFile);
+                } catch (IOException e) {
+                    log.warn("Failed to delete migrated credentials at: {}. Error = {}", legacyFile, e.getMessage());
+                }
             }
         }
+    }
 
-        Path credsFilePath = Paths.get(krakenDir.toString(), CREDS_FILE);
-        File credsFile = credsFilePath.toFile();
+    /**
+     * Marks the files which were not written dirty again and schedules another write.
+     */
+    private synchronized void retryLater(List<PendingFile> unwritten, boolean writeIndex, Path legacyFile) {
+        unwritten.forEach(file -> dirtyAccounts.add(file.getDiscordId()));
+        indexDirty |= writeIndex;
+        if (migratedFile == null) {
+            migratedFile = legacyFile;
+        }
+
+        if (pendingWrite == null) {
+            log.warn("Retrying credential write in {}ms.", RETRY_DELAY_MILLIS);
+            pendingWrite = writer.schedule(this::writePending, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes the index while holding a file lock shared with other Kraken clients on this host. The index on disk is
+     * read and merged into both the snapshot and the in memory index first, so accounts stored by another client are
+     * kept.
+     * @param snapshot AccountIndex the index as it was when the account files being written were snapshotted.
+     */
+    private boolean writeIndex(AccountIndex snapshot) {
+        Path indexFile = accountsDir.resolve(INDEX_FILE);
+        Path lockFile = accountsDir.resolve(INDEX_LOCK_FILE).toAbsolutePath();
+
+        // File locks are held per JVM, managers in the same JVM sharing a directory are serialized in process first.
+        synchronized (INDEX_LOCKS.computeIfAbsent(lockFile, k -> new Object())) {
+            try {
+                Files.createDirectories(accountsDir);
+                try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                     FileLock lock = channel.lock()) {
+                    AccountIndex onDisk = Files.isRegularFile(indexFile) ? readIndex(Files.readAllBytes(indexFile)) : null;
+                    if (onDisk != null) {
+                        merge(snapshot, onDisk);
+                        synchronized (this) {
+                            merge(index, onDisk);
+                        }
+                    }
+                    return writeAtomically(indexFile, vault.seal(codec.write(snapshot), INDEX_FILE));
+                }
+            } catch (IOException e) {
+                log.error("Failed to write the credential index. Error = {}", e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds the accounts stored by another Kraken client to an index. An account known to both keeps whichever entry was
+     * used most recently. The active account is always this client's.
+     */
+    private static void merge(AccountIndex into, AccountIndex onDisk) {
+        onDisk.getAccounts().forEach((discordId, entry) -> {
+            AccountEntry current = into.getAccounts().get(discordId);
+            if (current == null || entry.getLastUsed() > current.getLastUsed()) {
+                into.getAccounts().put(discordId, entry);
+            }
+        });
+    }
+
+    /**
+     * Returns the account index, loading it (and migrating legacy credentials) the first time. When the index is
+     * missing or cannot be read it is rebuilt from the account files.
+     */
+    private AccountIndex index() {
+        if (index != null) {
+            return index;
+        }
 
-        if (!credsFile.exists()) {
+        Path indexFile = accountsDir.resolve(INDEX_FILE);
+        if (Files.isRegularFile(indexFile)) {
             try {
-                Files.createFile(credsFilePath);
+                byte[] bytes = Files.readAllBytes(indexFile);
+                index = readIndex(bytes);
+                if (index != null) {
+                    if (!CredentialVault.isSealed(bytes)) {
+                        indexDirty = true;
+                        scheduleWrite();
+                    }
+                    return index;
+                }
             } catch (IOException e) {
-                // Handle exception, e.g., log the error
-                log.error("IOException thrown while attempting to create creds.json file in: {}. Error = {}", krakenDir.getPath(), e.getMessage());
-                e.printStackTrace();
+                log.error("IOException thrown while attempting to load the credential index. Error = {}", e.getMessage());
             }
         }
 
+        index = rebuildIndex();
+        migrateLegacyCredentials();
+        return index;
+    }
+
+    /**
+     * Decodes an index file.
+     * @return AccountIndex or null if the index cannot be decrypted or decoded, or has another version.
+     */
+    private AccountIndex readIndex(byte[] bytes) {
         try {
-            if(cognitoUser.getDiscordUsername() == null || cognitoUser.getDiscordId() == null || cognitoUser.getCredentials() == null) {
-                log.info("Cognito user data is null. Skipping persist.");
-                return;
+            AccountIndex read = codec.read(unseal(bytes, INDEX_FILE), indexType);
+            if (read.getVersion() == AccountIndex.CURRENT_VERSION && read.getAccounts() != null) {
+                return read;
             }
-            log.info("User info persisted to disk.");
-            mapper.writeValue(credsFile, cognitoUser);
+            log.warn("Ignoring credential index with version: {}", read.getVersion());
         } catch (IOException e) {
-            log.error("Failed writing creds to JSON file. Path = {}. Error = {}", credsFile.getPath(), e.getMessage());
-            e.printStackTrace();
+            log.error("Failed to read the credential index. Error = {}", e.getMessage());
         }
+        return null;
     }
 
     /**
-     * Loads a set of Cognito credentials and user information (discord id, username, email) from disk.
-     * @return CognitoCredentials an access token and refresh token for Cognito.
+     * Builds an index from the account files so accounts are not orphaned when the index is lost or unreadable. The
+     * most recently written account becomes the active account, plaintext account files are rewritten encrypted.
      */
-    public CognitoUser loadUserCredentials() {
-        Path credsFilePath = Paths.get(RUNELITE_DIR.getPath(), KRAKEN_DIR, CREDS_FILE);
-        File credsFile = credsFilePath.toFile();
+    private AccountIndex rebuildIndex() {
+        AccountIndex rebuilt = new AccountIndex();
+        if (!Files.isDirectory(accountsDir)) {
+            return rebuilt;
+        }
 
-        if (credsFile.exists() && credsFile.length() > 0) {
-            try {
-                return mapper.readValue(credsFile, CognitoUser.class);
-            } catch (IOException e) {
-                log.error("IOException thrown while attempting to load user credentials. Error = {}", e.getMessage());
-                e.printStackTrace();
+        long activeLastUsed = Long.MIN_VALUE;
+        try (Stream<Path> files = Files.list(accountsDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(".json") || name.equals(INDEX_FILE)) {
+                    continue;
+                }
+
+                byte[] bytes = readBytes(file);
+                CognitoUser user = bytes == null ? null : decodeUser(file, bytes);
+                if (user == null || user.getDiscordId() == null) {
+                    continue;
+                }
+
+                AccountEntry entry = new AccountEntry();
+                entry.setDiscordUsername(user.getDiscordUsername());
+                entry.setFile(name);
+                entry.setLastUsed(Files.getLastModifiedTime(file).toMillis());
+                rebuilt.getAccounts().put(user.getDiscordId(), entry);
+                users.put(user.getDiscordId(), user);
+                if (entry.getLastUsed() > activeLastUsed) {
+                    activeLastUsed = entry.getLastUsed();
+                    rebuilt.setActiveDiscordId(user.getDiscordId());
+                }
+                if (!CredentialVault.isSealed(bytes)) {
+                    dirtyAccounts.add(user.getDiscordId());
+                }
             }
+        } catch (IOException e) {
+            log.error("Failed to list account files in: {}. Error = {}", accountsDir, e.getMessage());
+        }
+
+        if (!rebuilt.getAccounts().isEmpty()) {
+            log.info("Rebuilt the credential index from {} account file(s).", rebuilt.getAccounts().size());
+            indexDirty = true;
+            scheduleWrite();
         }
-        log.warn("No credential file exists at: {} to load or file is empty.", credsFilePath);
+        return rebuilt;
+    }
+
+    /**
+     * Moves credentials from the single account creds.json file written by older versions into the account store. The
+     * legacy file is deleted once the store has been written.
+     */
+    private void migrateLegacyCredentials() {
+        Path legacyFile = krakenDir.resolve(LEGACY_CREDS_FILE);
+        CognitoUser legacy = Files.isRegularFile(legacyFile) ? readUser(legacyFile, null) : null;
+        if (legacy == null || legacy.getDiscordId() == null) {
+            return;
+        }
+
+        log.info("Migrating credentials for user: {} into the account store.", legacy.getDiscordUsername());
+        AccountEntry entry = new AccountEntry();
+        entry.setDiscordUsername(legacy.getDiscordUsername());
+        entry.setFile(fileName(legacy.getDiscordId()));
+        entry.setLastUsed(System.currentTimeMillis());
+        index.getAccounts().put(legacy.getDiscordId(), entry);
+        index.setActiveDiscordId(legacy.getDiscordId());
+        users.put(legacy.getDiscordId(), legacy);
+        dirtyAccounts.add(legacy.getDiscordId());
+        indexDirty = true;
+        migratedFile = legacyFile;
+        scheduleWrite();
+    }
+
+    private boolean writeAtomically(Path file, byte[] bytes) {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Credentials persisted to: {}", file);
+            return true;
+        } catch (IOException e) {
+            log.error("Failed writing creds to JSON file. Path = {}. Error = {}", file, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Reads a credentials file. Plaintext files written before credentials were encrypted are read as is and, when they
+     * belong to a stored account, scheduled to be rewritten encrypted.
+     */
+    private CognitoUser readUser(Path file, String discordId) {
+        byte[] bytes = readBytes(file);
+        CognitoUser user = bytes == null ? null : decodeUser(file, bytes);
+        if (user != null && discordId != null && !CredentialVault.isSealed(bytes)) {
+            dirtyAccounts.add(discordId);
+            scheduleWrite();
+        }
+        return user;
+    }
+
+    /**
+     * @return byte[] the contents of a credentials file or null if it cannot be read or is empty.
+     */
+    private static byte[] readBytes(Path file) {
+        try {
+            byte[] bytes = Files.readAllBytes(file);
+            if (bytes.length > 0) {
+                return bytes;
+            }
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to load user credentials from: {}. Error = {}", file, e.getMessage());
+            return null;
+        }
+        log.warn("Credential file at: {} is empty.", file);
         return null;
     }
 
+    private CognitoUser decodeUser(Path file, byte[] bytes) {
+        try {
+            return codec.read(unseal(bytes, file.getFileName().toString()), userType);
+        } catch (IOException e) {
+            log.error("IOException thrown while attempting to load user credentials from: {}. Error = {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private byte[] unseal(byte[] bytes, String fileName) throws IOException {
+        return CredentialVault.isSealed(bytes) ? vault.open(bytes, fileName) : bytes;
+    }
+
+    private static String fileName(String discordId) {
+        return discordId.replaceAll("[^A-Za-z0-9_-]", "_") + ".json";
+    }
+
+    private CognitoUser copy(CognitoUser cognitoUser) {
+        try {
+            return codec.copy(cognitoUser, userType);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to copy Cognito user.", e);
+        }
+    }
 }
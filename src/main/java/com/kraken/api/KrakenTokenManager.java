@@ -0,0 +1,312 @@
+package com.kraken.api;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kraken.auth.CognitoAuth;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the authenticated Cognito user and its access token in memory. When the cached token is still valid
+ * authentication completes without calling the Kraken API. A refresh is scheduled ahead of the token expiring so the
+ * token stays valid while the client is running, rotated tokens are written to disk through the
+ * {@link KrakenCredentialManager}.
+ *
+ * Credentials are shared with other Kraken clients on the same host through the {@link SharedTokenBroker}: only the
+ * client holding refresh leadership for an account calls the API, the others adopt the credentials it publishes.
+ */
+@Slf4j
+@Singleton
+public class KrakenTokenManager {
+
+    /**
+     * A cached token must be valid for at least this long to be used without authenticating.
+     */
+    private static final long MIN_VALIDITY_SECONDS = 120;
+
+    /**
+     * Refreshes are scheduled this long before the token expires, minus a random jitter of up to REFRESH_JITTER_SECONDS
+     * so multiple clients started together do not refresh at the same moment.
+     */
+    private static final long REFRESH_MARGIN_SECONDS = 300;
+    private static final long REFRESH_JITTER_SECONDS = 60;
+    private static final long MIN_REFRESH_DELAY_SECONDS = 5;
+    private static final long RETRY_DELAY_SECONDS = 30;
+
+    private final KrakenClient krakenClient;
+    private final KrakenCredentialManager credentialManager;
+    private final SharedTokenBroker broker;
+    private final AtomicReference<CognitoUser> currentUser = new AtomicReference<>();
+    private final ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pendingRefresh;
+
+    @Inject
+    public KrakenTokenManager(KrakenClient krakenClient, KrakenCredentialManager credentialManager, SharedTokenBroker broker) {
+        this.krakenClient = krakenClient;
+        this.credentialManager = credentialManager;
+        this.broker = broker;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "kraken-token-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Returns the authenticated user without blocking. When the cached user's access token is still valid the returned
+     * future is already complete and no request is made, otherwise the user is authenticated against the Kraken API
+     * using their refresh token.
+     * @param user CognitoUser the user loaded from disk.
+     * @return CompletableFuture of the authenticated user.
+     */
+    public CompletableFuture<CognitoUser> authenticate(@NonNull CognitoUser user) {
+        CognitoUser cached = currentUser.get();
+        if (cached == null || !user.getDiscordId().equals(cached.getDiscordId())) {
+            cached = user;
+        }
+
+        if (cached.isAccountEnabled() && cached.getCredentials() != null
+                && cached.getCredentials().isAccessTokenValid(now(), MIN_VALIDITY_SECONDS)) {
+            log.info("Using cached access token for user: {}, expires at: {}", cached.getDiscordUsername(),
+                    Instant.ofEpochSecond(cached.getCredentials().getExpiresAtEpochSeconds()));
+            currentUser.set(cached);
+            scheduleRefresh(cached);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        // Another Kraken client on this host may already have authenticated the account.
+        SharedTokenBroker.Snapshot snapshot = broker.read(user.getDiscordId());
+        CognitoUser shared = adoptShared(user, snapshot);
+        if (shared != null) {
+            return CompletableFuture.completedFuture(shared);
+        }
+
+        SharedTokenBroker.Leadership leadership = broker.tryLead(user.getDiscordId());
+        if (leadership == null) {
+            // Wait for anything newer than the snapshot already read, so a leader publishing between the read and
+            // tryLead is not missed.
+            long sequence = snapshot == null ? 0 : snapshot.getSequence();
+            log.info("Another Kraken client is authenticating user: {}, waiting for its credentials.", user.getDiscordUsername());
+            return broker.awaitNewer(user.getDiscordId(), sequence, KrakenClient.DEFAULT_DEADLINE, scheduler)
+                    .thenCompose(published -> {
+                        CognitoUser adopted = adoptShared(user, published);
+                        return adopted != null ? CompletableFuture.completedFuture(adopted) : authenticateDirect(user);
+                    });
+        }
+
+        // The previous leader may have published just before releasing leadership.
+        shared = adoptShared(user, broker.read(user.getDiscordId()));
+        if (shared != null) {
+            leadership.close();
+            return CompletableFuture.completedFuture(shared);
+        }
+        return authenticateDirect(user).whenComplete((authUser, error) -> leadership.close());
+    }
+
+    /**
+     * Switches to another stored account. The account's stored access token is reused when it is still valid so
+     * switching between accounts does not call the Kraken API.
+     * @param discordId String the discord id of the account to switch to.
+     * @return CompletableFuture of the authenticated user, completed with null if the account is not stored.
+     */
+    public CompletableFuture<CognitoUser> switchAccount(@NonNull String discordId) {
+        CognitoUser cached = currentUser.get();
+        if (cached != null && discordId.equals(cached.getDiscordId())) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        CognitoUser user = credentialManager.setActiveAccount(discordId);
+        if (user == null) {
+            log.warn("No stored credentials for account: {}", discordId);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // Stop refreshing the previous account, its credentials stay stored for when it is switched back to.
+        clear();
+        return authenticate(user);
+    }
+
+    private CompletableFuture<CognitoUser> authenticateDirect(CognitoUser user) {
+        return krakenClient.authenticateAsync(new CognitoAuth(user.getDiscordId(), user.getCredentials().getRefreshToken()))
+                .thenApply(authUser -> {
+                    if (authUser != null && authUser.getCredentials() != null) {
+                        stampIssued(authUser.getCredentials());
+                        broker.publish(authUser.getDiscordId(), authUser.getCredentials());
+                        credentialManager.persistUserCredentials(authUser);
+                        currentUser.set(authUser);
+                        scheduleRefresh(authUser);
+                    }
+                    return authUser;
+                });
+    }
+
+    private CognitoUser adoptShared(CognitoUser user, SharedTokenBroker.Snapshot snapshot) {
+        return snapshot == null ? null : adopt(user, snapshot.getCredentials());
+    }
+
+    /**
+     * Adopts credentials published by another Kraken client on this host if they are still valid.
+     * @return the user with the adopted credentials or null if they cannot be used.
+     */
+    private CognitoUser adopt(CognitoUser user, CognitoCredentials credentials) {
+        if (!user.isAccountEnabled() || !credentials.isAccessTokenValid(now(), MIN_VALIDITY_SECONDS)) {
+            return null;
+        }
+
+        log.info("Using access token shared by another Kraken client for user: {}", user.getDiscordUsername());
+        CognitoUser adopted = copyWithCredentials(user, credentials);
+        credentialManager.persistUserCredentials(adopted);
+        currentUser.set(adopted);
+        scheduleRefresh(adopted);
+        return adopted;
+    }
+
+    /**
+     * Returns the user currently held in memory or null if no user has been authenticated.
+     * @return CognitoUser
+     */
+    public CognitoUser getCurrentUser() {
+        return currentUser.get();
+    }
+
+    /**
+     * Drops the in memory user and cancels any scheduled refresh i.e. when the user disconnects their discord account.
+     */
+    public synchronized void clear() {
+        currentUser.set(null);
+        cancelRefresh();
+    }
+
+    private synchronized void scheduleRefresh(CognitoUser user) {
+        long expiresAt = user.getCredentials().getExpiresAtEpochSeconds();
+        if (expiresAt <= 0) {
+            log.debug("Token expiry for user: {} is unknown, no refresh scheduled.", user.getDiscordUsername());
+            return;
+        }
+
+        long jitter = ThreadLocalRandom.current().nextLong(REFRESH_JITTER_SECONDS + 1);
+        long delay = Math.max(MIN_REFRESH_DELAY_SECONDS, expiresAt - now() - REFRESH_MARGIN_SECONDS - jitter);
+        schedule(delay);
+    }
+
+    private synchronized void schedule(long delaySeconds) {
+        cancelRefresh();
+        log.debug("Scheduling Kraken token refresh in {}s", delaySeconds);
+        pendingRefresh = scheduler.schedule(this::refresh, delaySeconds, TimeUnit.SECONDS);
+    }
+
+    private void cancelRefresh() {
+        if (pendingRefresh != null) {
+            pendingRefresh.cancel(false);
+            pendingRefresh = null;
+        }
+    }
+
+    private void refresh() {
+        CognitoUser user = currentUser.get();
+        if (user == null || user.getCredentials() == null) {
+            return;
+        }
+
+        // Another Kraken client on this host may have refreshed the session already.
+        SharedTokenBroker.Snapshot snapshot = broker.read(user.getDiscordId());
+        if (snapshot != null && isRefreshed(user.getCredentials(), snapshot.getCredentials())) {
+            adoptRefreshed(user, snapshot.getCredentials());
+            return;
+        }
+
+        SharedTokenBroker.Leadership leadership = broker.tryLead(user.getDiscordId());
+        if (leadership == null) {
+            long sequence = snapshot == null ? 0 : snapshot.getSequence();
+            broker.awaitNewer(user.getDiscordId(), sequence, KrakenClient.DEFAULT_DEADLINE, scheduler)
+                    .thenAccept(newer -> {
+                        if (newer != null && isRefreshed(user.getCredentials(), newer.getCredentials())) {
+                            adoptRefreshed(user, newer.getCredentials());
+                        } else if (currentUser.get() == user) {
+                            schedule(RETRY_DELAY_SECONDS);
+                        }
+                    });
+            return;
+        }
+
+        krakenClient.refreshSessionAsync(new CognitoAuth(user.getDiscordId(), user.getCredentials().getRefreshToken()))
+                .whenComplete((credentials, error) -> {
+                    try {
+                        onRefreshed(user, credentials, error);
+                    } finally {
+                        leadership.close();
+                    }
+                });
+    }
+
+    private void onRefreshed(CognitoUser user, CognitoCredentials credentials, Throwable error) {
+        if (currentUser.get() != user) {
+            // The user disconnected or re-authenticated while the refresh was in flight.
+            return;
+        }
+
+        if (error != null || credentials == null || credentials.getAccessToken() == null) {
+            long expiresAt = user.getCredentials().getExpiresAtEpochSeconds();
+            log.warn("Failed to refresh Kraken session for user: {}. Error = {}", user.getDiscordUsername(),
+                    error == null ? "empty response" : error.getMessage());
+            if (expiresAt - now() > RETRY_DELAY_SECONDS) {
+                schedule(RETRY_DELAY_SECONDS);
+            }
+            return;
+        }
+
+        if (credentials.getRefreshToken() == null) {
+            credentials.setRefreshToken(user.getCredentials().getRefreshToken());
+        }
+        stampIssued(credentials);
+        broker.publish(user.getDiscordId(), credentials);
+        adoptRefreshed(user, credentials);
+    }
+
+    /**
+     * Returns true when shared credentials are newer than ours and will not need refreshing again straight away.
+     */
+    private static boolean isRefreshed(CognitoCredentials current, CognitoCredentials shared) {
+        return shared.getExpiresAtEpochSeconds() > current.getExpiresAtEpochSeconds()
+                && shared.isAccessTokenValid(now(), REFRESH_MARGIN_SECONDS + REFRESH_JITTER_SECONDS);
+    }
+
+    private void adoptRefreshed(CognitoUser user, CognitoCredentials credentials) {
+        CognitoUser refreshed = copyWithCredentials(user, credentials);
+        if (currentUser.compareAndSet(user, refreshed)) {
+            credentialManager.persistUserCredentials(refreshed);
+            log.info("Kraken session refreshed for user: {}", refreshed.getDiscordUsername());
+            scheduleRefresh(refreshed);
+        }
+    }
+
+    private static CognitoUser copyWithCredentials(CognitoUser user, CognitoCredentials credentials) {
+        CognitoUser copy = new CognitoUser();
+        copy.setCognitoId(user.getCognitoId());
+        copy.setDiscordId(user.getDiscordId());
+        copy.setDiscordUsername(user.getDiscordUsername());
+        copy.setEmail(user.getEmail());
+        copy.setAccountEnabled(user.isAccountEnabled());
+        copy.setCredentials(credentials);
+        return copy;
+    }
+
+    private static void stampIssued(CognitoCredentials credentials) {
+        if (credentials.getIssuedAtSeconds() <= 0) {
+            credentials.setIssuedAtSeconds(now());
+        }
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+}
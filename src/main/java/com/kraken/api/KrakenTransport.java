@@ -0,0 +1,49 @@
+package com.kraken.api;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Getter;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The HTTP client and JSON codec shared by every Kraken component. A single HttpClient means a single connection pool
+ * and selector thread for the Kraken API and Discord, and a single codec means Jackson's serializer caches are only
+ * built once.
+ *
+ * The idle connection timeout is left at the JDK default. It can only be set through the
+ * jdk.httpclient.keepalive.timeout system property, which would also change every other HttpClient in the RuneLite JVM.
+ */
+@Getter
+@Singleton
+public class KrakenTransport {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final int MAX_THREADS = 4;
+
+    private final HttpClient httpClient;
+    private final JsonCodec codec;
+    private final ExecutorService executor;
+
+    @Inject
+    public KrakenTransport() {
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread thread = new Thread(r, "kraken-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+
+        this.executor = Executors.newFixedThreadPool(MAX_THREADS, threadFactory);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(executor)
+                .build();
+        this.codec = new JsonCodec();
+    }
+}
@@ -0,0 +1,319 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * An HTTP response cache for GET calls to the Kraken API. Responses are kept in memory in least recently used order
+ * and bounded by the total size of their bodies, optionally they are also written to RUNELITE_DIR/kraken/cache so they
+ * survive a restart.
+ *
+ * A response is cached when it carries a validator (ETag or Last-Modified) or a Cache-Control max-age. While an entry is
+ * fresh it is served without a request, once stale it is revalidated with If-None-Match / If-Modified-Since so an
+ * unchanged resource only costs a 304 round trip. Cache-Control no-store responses are never cached and no-cache
+ * responses are always revalidated.
+ *
+ * Responses which carry secrets, i.e. Cognito credentials, are put with persist false and only ever held in memory.
+ */
+@Slf4j
+public class ResponseCache {
+    public static final File CACHE_DIR = new File(RUNELITE_DIR, "kraken/cache");
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class Entry {
+        private String key;
+        private byte[] body;
+        private String etag;
+        private String lastModified;
+        private long expiresAtMillis;
+
+        @JsonIgnore
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiresAtMillis;
+        }
+    }
+
+    private final long maxBytes;
+    private final Path diskDir;
+    private final ObjectMapper mapper;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    /**
+     * Serializes disk reads and writes. Disk I/O never runs while holding this object's lock, so memory hits are not
+     * held up behind a slow disk. Lock order is diskLock then this.
+     */
+    private final Object diskLock = new Object();
+
+    /**
+     * @param maxBytes long the maximum combined size of cached bodies kept in memory (and on disk).
+     * @param diskDir Path the directory to persist entries to or null to only cache in memory.
+     * @param mapper ObjectMapper used to read and write entries on disk.
+     */
+    public ResponseCache(long maxBytes, Path diskDir, ObjectMapper mapper) {
+        this.maxBytes = maxBytes;
+        this.diskDir = diskDir;
+        this.mapper = mapper;
+    }
+
+    /**
+     * Returns the cached entry for a key, loading it from disk if it is not held in memory.
+     * @param key String the path (and query string) of the request.
+     * @return Entry or null if nothing is cached.
+     */
+    public Entry get(String key) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null || diskDir == null) {
+                return entry;
+            }
+        }
+
+        List<String> evicted;
+        Entry entry;
+        synchronized (diskLock) {
+            entry = readFromDisk(key);
+            if (entry == null) {
+                return null;
+            }
+
+            synchronized (this) {
+                Entry current = entries.get(key);
+                if (current != null) {
+                    return current;
+                }
+                evicted = putInMemory(entry);
+            }
+        }
+        deleteFromDisk(evicted);
+        return entry;
+    }
+
+    /**
+     * Caches a successful response if its headers allow it, otherwise any existing entry for the key is dropped.
+     * @param key String the path (and query string) of the request.
+     * @param headers HttpHeaders the response headers.
+     * @param body byte[] the response body.
+     * @param persist boolean false to keep the response in memory only, even when the disk cache is enabled.
+     */
+    public void put(String key, HttpHeaders headers, byte[] body, boolean persist) {
+        String cacheControl = headers.firstValue("Cache-Control").orElse("").toLowerCase(Locale.ROOT);
+        String etag = headers.firstValue("ETag").orElse(null);
+        String lastModified = headers.firstValue("Last-Modified").orElse(null);
+        long maxAge = maxAgeMillis(cacheControl);
+
+        if (cacheControl.contains("no-store") || (etag == null && lastModified == null && maxAge <= 0) || body.length > maxBytes) {
+            remove(key);
+            return;
+        }
+
+        store(new Entry(key, body, etag, lastModified, System.currentTimeMillis() + maxAge), persist);
+    }
+
+    /**
+     * Refreshes an entry after the server answered 304 Not Modified. The body is kept, the validators and freshness
+     * lifetime are taken from the 304 response where present.
+     * @param entry Entry the entry which was revalidated.
+     * @param headers HttpHeaders the 304 response headers.
+     * @param persist boolean false to keep the response in memory only, even when the disk cache is enabled.
+     */
+    public void revalidated(Entry entry, HttpHeaders headers, boolean persist) {
+        String cacheControl = headers.firstValue("Cache-Control").orElse("").toLowerCase(Locale.ROOT);
+        store(new Entry(entry.getKey(),
+                entry.getBody(),
+                headers.firstValue("ETag").orElse(entry.getEtag()),
+                headers.firstValue("Last-Modified").orElse(entry.getLastModified()),
+                System.currentTimeMillis() + maxAgeMillis(cacheControl)), persist);
+    }
+
+    /**
+     * Drops the entry for a key from memory and disk.
+     * @param key String the path (and query string) of the request.
+     */
+    public void remove(String key) {
+        synchronized (this) {
+            Entry removed = entries.remove(key);
+            if (removed != null) {
+                totalBytes -= removed.getBody().length;
+            }
+        }
+        deleteFromDisk(Collections.singletonList(key));
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void store(Entry entry, boolean persist) {
+        List<String> evicted;
+        synchronized (this) {
+            evicted = putInMemory(entry);
+        }
+
+        if (persist) {
+            writeToDisk(entry);
+        } else if (diskDir != null) {
+            // Drop a copy written before the response was known to be memory only.
+            synchronized (diskLock) {
+                deleteFile(entry.getKey());
+            }
+        }
+        deleteFromDisk(evicted);
+    }
+
+    /**
+     * Adds an entry to memory, evicting the least recently used entries over the size limit.
+     * @return List of the evicted keys, which must be deleted from disk once the lock is released.
+     */
+    private List<String> putInMemory(Entry entry) {
+        Entry previous = entries.put(entry.getKey(), entry);
+        if (previous != null) {
+            totalBytes -= previous.getBody().length;
+        }
+        totalBytes += entry.getBody().length;
+
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && eldest.hasNext()) {
+            Entry next = eldest.next().getValue();
+            eldest.remove();
+            totalBytes -= next.getBody().length;
+            evicted.add(next.getKey());
+        }
+        return evicted;
+    }
+
+    /**
+     * Returns the max-age from a Cache-Control header in milliseconds, 0 when absent or when the response must always
+     * be revalidated.
+     */
+    private static long maxAgeMillis(String cacheControl) {
+        if (cacheControl.contains("no-cache")) {
+            return 0;
+        }
+
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Math.max(0, Long.parseLong(directive.substring("max-age=".length()).trim())) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private Entry readFromDisk(String key) {
+        Path file = diskFile(key);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try {
+            Entry entry = mapper.readValue(file.toFile(), Entry.class);
+            return key.equals(entry.getKey()) && entry.getBody() != null ? entry : null;
+        } catch (IOException e) {
+            log.warn("Failed to read cached response at: {}. Error = {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes an entry to disk unless it was replaced, removed or evicted since it was stored, so a slow write never
+     * overwrites a newer entry or brings back one which was dropped.
+     */
+    private void writeToDisk(Entry entry) {
+        if (diskDir == null) {
+            return;
+        }
+
+        Path file = diskFile(entry.getKey());
+        synchronized (diskLock) {
+            synchronized (this) {
+                if (entries.get(entry.getKey()) != entry) {
+                    return;
+                }
+            }
+
+            try {
+                Files.createDirectories(diskDir);
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                mapper.writeValue(tmp.toFile(), entry);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("Failed to write cached response to: {}. Error = {}", file, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Deletes the disk copies of keys which are no longer held in memory.
+     */
+    private void deleteFromDisk(List<String> keys) {
+        if (diskDir == null || keys.isEmpty()) {
+            return;
+        }
+
+        synchronized (diskLock) {
+            for (String key : keys) {
+                synchronized (this) {
+                    if (entries.containsKey(key)) {
+                        continue;
+                    }
+                }
+
+                deleteFile(key);
+            }
+        }
+    }
+
+    private void deleteFile(String key) {
+        try {
+            Files.deleteIfExists(diskFile(key));
+        } catch (IOException e) {
+            log.warn("Failed to delete cached response for: {}. Error = {}", key, e.getMessage());
+        }
+    }
+
+    private Path diskFile(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return diskDir.resolve(hex + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+    }
+}
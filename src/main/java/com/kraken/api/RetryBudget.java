@@ -0,0 +1,32 @@
+package com.kraken.api;
+
+/**
+ * Limits retries to a fraction of the overall request volume. Every request deposits DEPOSIT tokens and every retry
+ * withdraws a whole token, so while the API is degraded retries add at most ~20% extra load instead of multiplying it.
+ * The balance is capped so a long healthy period cannot build up a burst of retries.
+ */
+public class RetryBudget {
+    private static final double DEPOSIT = 0.2;
+    private static final double MAX_BALANCE = 10;
+
+    private double balance = MAX_BALANCE;
+
+    /**
+     * Records a request being made.
+     */
+    public synchronized void deposit() {
+        balance = Math.min(MAX_BALANCE, balance + DEPOSIT);
+    }
+
+    /**
+     * Withdraws a token for a retry.
+     * @return boolean true when the retry may be made.
+     */
+    public synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,288 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.databind.JavaType;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Shares Cognito credentials between every Kraken client running on the same host. Each discord account has a small
+ * memory mapped token file under RUNELITE_DIR/kraken/tokens which holds the latest credentials and a sequence number
+ * bumped on every publish. Reads take a shared FileLock and writes an exclusive one so a reader never sees a half
+ * written token.
+ *
+ * Only one process at a time may refresh an account's session: leadership is an exclusive FileLock on a separate
+ * per-account lock file, acquired with tryLock so followers never block. The OS releases the lock if the leader dies so
+ * leadership can never be stuck. FileLocks are held by the whole JVM, so threads within one process are additionally
+ * guarded in-process.
+ *
+ * File layout: magic (int), sequence (long), payload length (int), payload (JSON encoded CognitoCredentials sealed by
+ * the {@link CredentialVault}).
+ */
+@Slf4j
+@Singleton
+public class SharedTokenBroker {
+    public static final File TOKEN_DIR = new File(RUNELITE_DIR, "kraken/tokens");
+
+    private static final int MAGIC = 0x4B524B54;
+    private static final int FILE_SIZE = 16 * 1024;
+    private static final int SEQUENCE_OFFSET = 4;
+    private static final int LENGTH_OFFSET = 12;
+    private static final int PAYLOAD_OFFSET = 16;
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * The credentials published for an account and the sequence number they were published with.
+     */
+    @Value
+    public static class Snapshot {
+        long sequence;
+        CognitoCredentials credentials;
+    }
+
+    /**
+     * Refresh leadership for an account, close it once the refreshed credentials have been published.
+     */
+    public static class Leadership implements AutoCloseable {
+        private final FileLock fileLock;
+        private final Semaphore guard;
+
+        private Leadership(FileLock fileLock, Semaphore guard) {
+            this.fileLock = fileLock;
+            this.guard = guard;
+        }
+
+        @Override
+        public void close() {
+            try {
+                fileLock.release();
+            } catch (IOException e) {
+                log.warn("Failed to release token refresh leadership. Error = {}", e.getMessage());
+            } finally {
+                guard.release();
+            }
+        }
+    }
+
+    private static class Slot {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final FileChannel leaderChannel;
+        private final ReentrantLock bufferLock = new ReentrantLock();
+        private final Semaphore leaderGuard = new Semaphore(1);
+
+        private Slot(FileChannel channel, MappedByteBuffer buffer, FileChannel leaderChannel) {
+            this.channel = channel;
+            this.buffer = buffer;
+            this.leaderChannel = leaderChannel;
+        }
+    }
+
+    private final JsonCodec codec;
+    private final JavaType credentialsType;
+    private final Path dir;
+    private final CredentialVault vault;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+    @Inject
+    public SharedTokenBroker(KrakenTransport transport, CredentialVault vault) {
+        this(transport.getCodec(), TOKEN_DIR.toPath(), vault);
+    }
+
+    SharedTokenBroker(JsonCodec codec, Path dir) {
+        this(codec, dir, new CredentialVault(dir.resolve("vault.key")));
+    }
+
+    SharedTokenBroker(JsonCodec codec, Path dir, CredentialVault vault) {
+        this.codec = codec;
+        this.credentialsType = codec.type(CognitoCredentials.class);
+        this.dir = dir;
+        this.vault = vault;
+    }
+
+    /**
+     * Reads the credentials currently published for an account.
+     * @param discordId String the account.
+     * @return Snapshot or null if nothing has been published or the token file cannot be read.
+     */
+    public Snapshot read(String discordId) {
+        Slot slot = slot(discordId);
+        if (slot == null) {
+            return null;
+        }
+
+        long sequence;
+        byte[] payload;
+        slot.bufferLock.lock();
+        try (FileLock lock = slot.channel.lock(0, FILE_SIZE, true)) {
+            if (slot.buffer.getInt(0) != MAGIC) {
+                return null;
+            }
+            sequence = slot.buffer.getLong(SEQUENCE_OFFSET);
+            int length = slot.buffer.getInt(LENGTH_OFFSET);
+            if (length <= 0 || length > FILE_SIZE - PAYLOAD_OFFSET) {
+                return null;
+            }
+            payload = new byte[length];
+            ByteBuffer view = slot.buffer.duplicate();
+            view.position(PAYLOAD_OFFSET);
+            view.get(payload);
+        } catch (IOException e) {
+            log.warn("Failed to read shared token for: {}. Error = {}", discordId, e.getMessage());
+            return null;
+        } finally {
+            slot.bufferLock.unlock();
+        }
+
+        try {
+            return new Snapshot(sequence, codec.read(vault.open(payload, discordId), credentialsType));
+        } catch (IOException e) {
+            log.warn("Discarding unreadable shared token for: {}. Error = {}", discordId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Publishes credentials for every client on this host.
+     * @param discordId String the account.
+     * @param credentials CognitoCredentials the credentials to publish.
+     * @return long the sequence number the credentials were published with or -1 if they could not be published.
+     */
+    public long publish(String discordId, CognitoCredentials credentials) {
+        Slot slot = slot(discordId);
+        if (slot == null) {
+            return -1;
+        }
+
+        byte[] payload;
+        try {
+            payload = vault.seal(codec.write(credentials), discordId);
+        } catch (IOException e) {
+            log.warn("Failed to encode shared token for: {}. Error = {}", discordId, e.getMessage());
+            return -1;
+        }
+
+        if (payload.length > FILE_SIZE - PAYLOAD_OFFSET) {
+            log.warn("Shared token for: {} is too large to publish ({} bytes).", discordId, payload.length);
+            return -1;
+        }
+
+        slot.bufferLock.lock();
+        try (FileLock lock = slot.channel.lock(0, FILE_SIZE, false)) {
+            long sequence = (slot.buffer.getInt(0) == MAGIC ? slot.buffer.getLong(SEQUENCE_OFFSET) : 0) + 1;
+            ByteBuffer view = slot.buffer.duplicate();
+            view.position(PAYLOAD_OFFSET);
+            view.put(payload);
+            slot.buffer.putInt(LENGTH_OFFSET, payload.length);
+            slot.buffer.putLong(SEQUENCE_OFFSET, sequence);
+            slot.buffer.putInt(0, MAGIC);
+            slot.buffer.force();
+            return sequence;
+        } catch (IOException e) {
+            log.warn("Failed to publish shared token for: {}. Error = {}", discordId, e.getMessage());
+            return -1;
+        } finally {
+            slot.bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Attempts to become the process which refreshes an account's session. Never blocks.
+     * @param discordId String the account.
+     * @return Leadership which must be closed once done or null if another thread or process is already refreshing.
+     */
+    public Leadership tryLead(String discordId) {
+        Slot slot = slot(discordId);
+        if (slot == null || !slot.leaderGuard.tryAcquire()) {
+            return null;
+        }
+
+        try {
+            FileLock lock = slot.leaderChannel.tryLock();
+            if (lock != null) {
+                return new Leadership(lock, slot.leaderGuard);
+            }
+        } catch (IOException | OverlappingFileLockException e) {
+            log.warn("Failed to acquire token refresh leadership for: {}. Error = {}", discordId, e.getMessage());
+        }
+        slot.leaderGuard.release();
+        return null;
+    }
+
+    /**
+     * Waits without blocking for credentials newer than a sequence number to be published, i.e. by the process which
+     * holds refresh leadership.
+     * @param discordId String the account.
+     * @param afterSequence long the sequence number the caller has already seen.
+     * @param timeout Duration how long to wait.
+     * @param scheduler ScheduledExecutorService used to poll the token file.
+     * @return CompletableFuture which completes with the newer snapshot or null if none was published in time.
+     */
+    public CompletableFuture<Snapshot> awaitNewer(String discordId, long afterSequence, Duration timeout, ScheduledExecutorService scheduler) {
+        CompletableFuture<Snapshot> result = new CompletableFuture<>();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        ScheduledFuture<?> poll = scheduler.scheduleWithFixedDelay(() -> {
+            Snapshot snapshot = read(discordId);
+            if (snapshot != null && snapshot.getSequence() > afterSequence) {
+                result.complete(snapshot);
+            } else if (System.nanoTime() > deadline) {
+                result.complete(null);
+            }
+        }, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+        result.whenComplete((snapshot, error) -> poll.cancel(false));
+        return result;
+    }
+
+    /**
+     * Returns the sequence number currently published for an account or 0 if nothing has been published.
+     * @param discordId String the account.
+     * @return long
+     */
+    public long sequence(String discordId) {
+        Snapshot snapshot = read(discordId);
+        return snapshot == null ? 0 : snapshot.getSequence();
+    }
+
+    private Slot slot(String discordId) {
+        String name = discordId.replaceAll("[^A-Za-z0-9_-]", "_");
+        try {
+            return slots.computeIfAbsent(name, k -> {
+                try {
+                    Files.createDirectories(dir);
+                    FileChannel channel = FileChannel.open(dir.resolve(k + ".token"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_SIZE);
+                    FileChannel leaderChannel = FileChannel.open(dir.resolve(k + ".leader"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    return new Slot(channel, buffer, leaderChannel);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        } catch (IllegalStateException e) {
+            log.warn("Failed to open shared token file for: {}. Error = {}", discordId, e.getMessage());
+            return null;
+        }
+    }
+}
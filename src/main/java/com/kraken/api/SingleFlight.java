@@ -0,0 +1,79 @@
+package com.kraken.api;
+
+import com.kraken.metrics.KrakenMetrics;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Collapses concurrent identical calls into a single in flight call. The first caller for a key starts the call, callers
+ * which arrive while it is in flight share its outcome instead of starting their own. Every caller gets its own future
+ * so completing or timing out one caller never affects another, the shared call is only cancelled once every caller
+ * has cancelled.
+ * @param <K> the key identifying identical calls.
+ */
+public class SingleFlight<K> {
+    private final Map<K, Flight<?>> flights = new ConcurrentHashMap<>();
+    private final KrakenMetrics metrics;
+
+    public SingleFlight(KrakenMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private static class Flight<T> {
+        private final CompletableFuture<T> shared = new CompletableFuture<>();
+        private final AtomicInteger callers = new AtomicInteger();
+        private volatile CompletableFuture<T> source;
+    }
+
+    /**
+     * Runs a call or joins an identical call which is already in flight.
+     * @param key K identifies identical calls.
+     * @param call Supplier which starts the call, only invoked for the first caller.
+     * @param copier UnaryOperator which copies the result for callers that joined an in flight call so callers never
+     *               share a mutable result.
+     * @return CompletableFuture of the result for this caller.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> execute(K key, Supplier<CompletableFuture<T>> call, UnaryOperator<T> copier) {
+        Flight<T> created = new Flight<>();
+        Flight<T> existing = (Flight<T>) flights.putIfAbsent(key, created);
+        Flight<T> flight = existing == null ? created : existing;
+        flight.callers.incrementAndGet();
+
+        CompletableFuture<T> caller;
+        if (existing == null) {
+            CompletableFuture<T> source;
+            try {
+                source = call.get();
+            } catch (RuntimeException e) {
+                source = CompletableFuture.failedFuture(e);
+            }
+
+            flight.source = source;
+            source.whenComplete((value, error) -> {
+                flights.remove(key, flight);
+                if (error != null) {
+                    flight.shared.completeExceptionally(error);
+                } else {
+                    flight.shared.complete(value);
+                }
+            });
+            caller = flight.shared.thenApply(value -> value);
+        } else {
+            metrics.increment("apiCoalesced", 1);
+            caller = flight.shared.thenApply(value -> value == null ? null : copier.apply(value));
+        }
+
+        caller.whenComplete((value, error) -> {
+            if (flight.callers.decrementAndGet() == 0 && caller.isCancelled() && flight.source != null) {
+                flight.source.cancel(true);
+            }
+        });
+        return caller;
+    }
+}
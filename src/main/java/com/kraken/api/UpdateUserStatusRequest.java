@@ -0,0 +1,12 @@
+package com.kraken.api;
+
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class UpdateUserStatusRequest {
+    private String discordId;
+    private boolean accountEnabled;
+}
@@ -1,9 +1,12 @@
 package com.kraken.auth;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.inject.Inject;
+import com.google.inject.Singleton;
 import com.kraken.api.DiscordOAuthRequest;
+import com.kraken.api.JsonCodec;
 import com.kraken.api.KrakenClient;
+import com.kraken.api.KrakenTransport;
+import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpServer;
 import lombok.extern.slf4j.Slf4j;
 
@@ -12,131 +15,220 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 
+/**
+ * Runs the Discord OAuth 2.0 authorization code flow. A local HTTP server receives the browser redirect and completes
+ * the pending attempt with the authorization code, the code is then exchanged through the Kraken API and the Discord
+ * user is fetched. Every step is chained asynchronously so no thread is parked while the user is on the Discord
+ * consent page. Each call to {@link #getDiscordUser()} starts a fresh attempt which times out after AUTH_TIMEOUT.
+ */
 @Slf4j
+@Singleton
 public class DiscordAuth {
     private static final String CLIENT_ID = "1303515055777648640";
     private static final int PORT = 8080;
     private static final String REDIRECT_URI = "http://localhost:" + PORT + "/discord/oauth";
+    private static final Duration AUTH_TIMEOUT = Duration.ofMinutes(5);
+
+    private static final String SUCCESS_PAGE = "<!DOCTYPE html>\n" +
+        "<html lang=\"en\">\n" +
+        "<head>\n" +
+        "    <meta charset=\"UTF-8\">\n" +
+        "    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n" +
+        "    <title>Kraken Authentication Successful</title>\n" +
+        "    <style>\n" +
+        "        body {\n" +
+        "            font-family: Arial, sans-serif;\n" +
+        "            background-color: #7289DA;\n" +
+        "            color: #FFFFFF;\n" +
+        "            display: flex;\n" +
+        "            justify-content: center;\n" +
+        "            align-items: center;\n" +
+        "            height: 100vh;\n" +
+        "            margin: 0;\n" +
+        "            padding: 0;\n" +
+        "        }\n" +
+        "        .container {\n" +
+        "            text-align: center;\n" +
+        "            padding: 2rem;\n" +
+        "            background-color: #2C2F33;\n" +
+        "            border-radius: 8px;\n" +
+        "            box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);\n" +
+        "            max-width: 500px;\n" +
+        "            width: 90%;\n" +
+        "        }\n" +
+        "        h1 {\n" +
+        "            font-size: 2.5rem;\n" +
+        "            margin-bottom: 1rem;\n" +
+        "        }\n" +
+        "        p {\n" +
+        "            font-size: 1.2rem;\n" +
+        "            margin-bottom: 2rem;\n" +
+        "        }\n" +
+        "        .logo {\n" +
+        "            max-width: 150px;\n" +
+        "            margin-bottom: 2rem;\n" +
+        "        }\n" +
+        "    </style>\n" +
+        "</head>\n" +
+        "<body>\n" +
+        "<div class=\"container\">\n" +
+        "    <img src=\"https://i.ibb.co/NSFyTLL/kraken.png\" alt=\"Kraken Logo\" class=\"logo\">\n" +
+        "    <h1>Authentication Successful!</h1>\n" +
+        "    <p>Your Kraken account has been successfully authenticated with Discord.</p>\n" +
+        "    <p>You can now continue using the Kraken client with your Discord credentials.</p>\n" +
+        "</div>\n" +
+        "</body>\n" +
+        "</html>";
 
     private final HttpClient httpClient;
-    private final ObjectMapper objectMapper;
-    private final CountDownLatch authorizationLatch = new CountDownLatch(1);
+    private final JsonCodec codec;
     private final KrakenClient krakenClient;
 
+    /**
+     * Starts, serves and stops the callback server and opens the browser. Tasks on it only ever take as long as a single
+     * request, nothing waits on it for the user.
+     */
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "kraken-discord-auth");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     private HttpServer server;
-    private DiscordTokenResponse tokenResponse;
-    private String authCode;
+    private CompletableFuture<String> pendingCode;
 
     @Inject
-    public DiscordAuth(KrakenClient krakenClient) {
+    public DiscordAuth(KrakenClient krakenClient, KrakenTransport transport) {
         this.krakenClient = krakenClient;
-        this.httpClient = HttpClient.newHttpClient();
-        this.objectMapper = new ObjectMapper();
+        this.httpClient = transport.getHttpClient();
+        this.codec = transport.getCodec();
     }
 
-    public CompletableFuture<DiscordUser> getDiscordUser() {
-        return CompletableFuture.supplyAsync(() -> {
+    /**
+     * Starts a new sign-in attempt. Any attempt still waiting for its callback is cancelled.
+     * @return CompletableFuture which completes with the Discord user once they have authorized Kraken or exceptionally
+     * if the attempt failed, was cancelled or timed out.
+     */
+    public synchronized CompletableFuture<DiscordUser> getDiscordUser() {
+        CompletableFuture<String> previous = pendingCode;
+        if (previous != null && !previous.isDone()) {
+            // Clear the attempt first so cancelling it keeps the callback server running for the new attempt.
+            log.info("Cancelling previous Discord sign-in attempt.");
+            pendingCode = null;
+            previous.cancel(false);
+        }
+
+        CompletableFuture<String> code = new CompletableFuture<String>()
+                .orTimeout(AUTH_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        pendingCode = code;
+        code.whenComplete((c, error) -> stopLocalServerIfIdle(code));
+
+        // Runs on the executor after any pending server stop so the port is free again.
+        CompletableFuture.runAsync(() -> {
             try {
-                if(server == null) {
-                    startLocalServer();
-                }
+                startLocalServer();
                 openBrowser();
-                authorizationLatch.await(); // Wait for auth callback
-                stopLocalServer();
-
-                // Exchange authCode with Kraken-API for access token
-                tokenResponse = krakenClient.postDiscordOAuthCode(new DiscordOAuthRequest(authCode));
-                return getDiscordUserInfo(tokenResponse.getAccessToken());
-            } catch (Exception e) {
-                log.error("Authentication Failed: {}", e.getMessage());
-                e.printStackTrace();
-                throw new RuntimeException("Discord Authentication failed: " + e.getMessage());
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
+        }, executor).exceptionally(error -> {
+            code.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            return null;
         });
+
+        return code
+                // Exchange authCode with Kraken-API for access token
+                .thenCompose(authCode -> krakenClient.postDiscordOAuthCodeAsync(new DiscordOAuthRequest(authCode)))
+                .thenCompose(tokenResponse -> getDiscordUserInfo(tokenResponse.getAccessToken()))
+                .whenComplete((user, error) -> {
+                    if (error != null && !(error instanceof CancellationException || error.getCause() instanceof CancellationException)) {
+                        log.error("Discord authentication failed: {}", error.getMessage());
+                    }
+                });
     }
 
-    private void startLocalServer() throws IOException {
+    private synchronized void startLocalServer() throws IOException {
+        if (server != null) {
+            return;
+        }
 
         server = HttpServer.create(new InetSocketAddress(PORT), 0);
-        server.createContext("/discord/oauth", exchange -> {
-            String query = exchange.getRequestURI().getQuery();
-            authCode = query.substring(query.indexOf("code=") + 5);
-
-            // Send success response to browser
-            String response = "<!DOCTYPE html>\n" +
-                    "<html lang=\"en\">\n" +
-                    "<head>\n" +
-                    "    <meta charset=\"UTF-8\">\n" +
-                    "    <meta name=\"viewport\" content=\"width=device-width, initial-scale=1.0\">\n" +
-                    "    <title>Kraken Authentication Successful</title>\n" +
-                    "    <style>\n" +
-                    "        body {\n" +
-                    "            font-family: Arial, sans-serif;\n" +
-                    "            background-color: #7289DA;\n" +
-                    "            color: #FFFFFF;\n" +
-                    "            display: flex;\n" +
-                    "            justify-content: center;\n" +
-                    "            align-items: center;\n" +
-                    "            height: 100vh;\n" +
-                    "            margin: 0;\n" +
-                    "            padding: 0;\n" +
-                    "        }\n" +
-                    "        .container {\n" +
-                    "            text-align: center;\n" +
-                    "            padding: 2rem;\n" +
-                    "            background-color: #2C2F33;\n" +
-                    "            border-radius: 8px;\n" +
-                    "            box-shadow: 0 4px 6px rgba(0, 0, 0, 0.1);\n" +
-                    "            max-width: 500px;\n" +
-                    "            width: 90%;\n" +
-                    "        }\n" +
-                    "        h1 {\n" +
-                    "            font-size: 2.5rem;\n" +
-                    "            margin-bottom: 1rem;\n" +
-                    "        }\n" +
-                    "        p {\n" +
-                    "            font-size: 1.2rem;\n" +
-                    "            margin-bottom: 2rem;\n" +
-                    "        }\n" +
-                    "        .logo {\n" +
-                    "            max-width: 150px;\n" +
-                    "            margin-bottom: 2rem;\n" +
-                    "        }\n" +
-                    "    </style>\n" +
-                    "</head>\n" +
-                    "<body>\n" +
-                    "<div class=\"container\">\n" +
-                    "    <img src=\"https://i.ibb.co/NSFyTLL/kraken.png\" alt=\"Kraken Logo\" class=\"logo\">\n" +
-                    "    <h1>Authentication Successful!</h1>\n" +
-                    "    <p>Your Kraken account has been successfully authenticated with Discord.</p>\n" +
-                    "    <p>You can now continue using the Kraken client with your Discord credentials.</p>\n" +
-                    "</div>\n" +
-                    "</body>\n" +
-                    "</html>";
-            exchange.getResponseHeaders().set("Content-Type", "text/html");
-            exchange.sendResponseHeaders(200, response.length());
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(response.getBytes());
-            }
-
-            authorizationLatch.countDown();
-        });
-        server.setExecutor(null);
+        server.createContext("/discord/oauth", this::handleCallback);
+        server.setExecutor(executor);
         server.start();
     }
 
-    private void stopLocalServer() {
-        if (server != null) {
-            server.stop(0);
+    /**
+     * Handles the redirect from Discord and completes the pending attempt with the authorization code.
+     */
+    private void handleCallback(HttpExchange exchange) throws IOException {
+        String authCode = queryParam(exchange.getRequestURI().getRawQuery(), "code");
+        String error = queryParam(exchange.getRequestURI().getRawQuery(), "error");
+
+        // Send response to browser
+        byte[] response = authCode != null ? SUCCESS_PAGE.getBytes(StandardCharsets.UTF_8)
+                : ("Discord authentication failed: " + (error == null ? "missing code" : error)).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", authCode != null ? "text/html" : "text/plain");
+        exchange.sendResponseHeaders(authCode != null ? 200 : 400, response.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(response);
+        }
+
+        CompletableFuture<String> code;
+        synchronized (this) {
+            code = pendingCode;
+        }
+
+        if (code == null) {
+            log.warn("Received a Discord OAuth callback without a sign-in attempt in progress.");
+        } else if (authCode != null) {
+            code.complete(authCode);
+        } else {
+            code.completeExceptionally(new IOException("Discord authorization was denied: " + error));
+        }
+    }
+
+    private static String queryParam(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stops the callback server once the given attempt has finished unless a newer attempt has started since. The
+     * server is stopped on the executor so it is never stopped from inside its own callback handler.
+     */
+    private synchronized void stopLocalServerIfIdle(CompletableFuture<String> attempt) {
+        if (pendingCode == attempt) {
+            pendingCode = null;
+            HttpServer stopping = server;
+            server = null;
+            if (stopping != null) {
+                executor.execute(() -> stopping.stop(0));
+            }
         }
     }
 
@@ -160,18 +252,26 @@ public class DiscordAuth {
     /**
      * Retrieves user information from Discord such as id, username, and email.
      * @param accessToken OAuth access token granted from discord OAuth flow.
-     * @return
-     * @throws IOException
-     * @throws InterruptedException
+     * @return CompletableFuture of the Discord user.
      */
-    private DiscordUser getDiscordUserInfo(String accessToken) throws IOException, InterruptedException {
+    private CompletableFuture<DiscordUser> getDiscordUserInfo(String accessToken) {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create("https://discord.com/api/users/@me"))
                 .header("Authorization", "Bearer " + accessToken)
                 .GET()
                 .build();
 
-        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-        return objectMapper.readValue(response.body(), DiscordUser.class);
+        // The body is received in full before thenApply runs so decoding never blocks an HttpClient executor thread.
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(response -> {
+                    try {
+                        if (response.statusCode() != 200) {
+                            throw new IOException("Discord user lookup failed with status code: " + response.statusCode());
+                        }
+                        return codec.read(response.body(), codec.type(DiscordUser.class));
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                });
     }
 }
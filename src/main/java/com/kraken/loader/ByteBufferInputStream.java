@@ -0,0 +1,38 @@
+package com.kraken.loader;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An InputStream over the remaining bytes of a buffer, used to read entries straight from a {@link MappedJarFile}.
+ */
+class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+}
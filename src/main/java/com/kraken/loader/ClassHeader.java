@@ -0,0 +1,244 @@
+package com.kraken.loader;
+
+import lombok.Getter;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal, read-only view of a compiled class file. Only the parts needed for plugin discovery are decoded: the
+ * class name, super class name and the class level runtime visible annotations. Fields, methods and their code are
+ * skipped over without being parsed so a class can be inspected without ever being defined by a ClassLoader.
+ */
+@Getter
+public class ClassHeader {
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final String RUNTIME_VISIBLE_ANNOTATIONS = "RuntimeVisibleAnnotations";
+
+    /**
+     * Binary name of the class in internal form i.e. com/krakenplugins/example/ExamplePlugin
+     */
+    private final String className;
+
+    /**
+     * Binary name of the super class in internal form or null for java/lang/Object.
+     */
+    private final String superName;
+
+    /**
+     * Class level annotations keyed by their type descriptor i.e. Lnet/runelite/client/plugins/PluginDescriptor;
+     * Each annotation maps its element names to decoded values (see {@link #readElementValue}).
+     */
+    private final Map<String, Map<String, Object>> annotations;
+
+    private ClassHeader(String className, String superName, Map<String, Map<String, Object>> annotations) {
+        this.className = className;
+        this.superName = superName;
+        this.annotations = annotations;
+    }
+
+    /**
+     * Returns the fully qualified class name in dotted form i.e. com.krakenplugins.example.ExamplePlugin
+     * @return String the fully qualified name of the class.
+     */
+    public String getQualifiedName() {
+        return className.replace('/', '.');
+    }
+
+    /**
+     * Returns true when this class directly extends the provided super class.
+     * @param qualifiedSuperName String fully qualified (dotted) name of the super class to check.
+     * @return boolean
+     */
+    public boolean extendsClass(String qualifiedSuperName) {
+        return superName != null && superName.equals(qualifiedSuperName.replace('.', '/'));
+    }
+
+    /**
+     * Returns the element values for an annotation present on the class or null if the annotation is not present.
+     * @param qualifiedAnnotationName String fully qualified (dotted) name of the annotation type.
+     * @return Map of element name to decoded value.
+     */
+    public Map<String, Object> getAnnotation(String qualifiedAnnotationName) {
+        return annotations.get("L" + qualifiedAnnotationName.replace('.', '/') + ";");
+    }
+
+    /**
+     * Parses the header of a class file from the provided stream. The stream is read only as far as the class
+     * attributes and is not closed.
+     * @param in InputStream positioned at the start of a class file.
+     * @return ClassHeader
+     * @throws IOException When the stream is not a valid class file.
+     */
+    public static ClassHeader read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file, bad magic number.");
+        }
+
+        // minor & major version
+        data.readUnsignedShort();
+        data.readUnsignedShort();
+
+        int poolCount = data.readUnsignedShort();
+        Object[] pool = new Object[poolCount];
+        for (int i = 1; i < poolCount; i++) {
+            int tag = data.readUnsignedByte();
+            switch (tag) {
+                case 1: // Utf8
+                    pool[i] = data.readUTF();
+                    break;
+                case 3: // Integer
+                    pool[i] = data.readInt();
+                    break;
+                case 4: // Float
+                    pool[i] = data.readFloat();
+                    break;
+                case 5: // Long
+                    pool[i] = data.readLong();
+                    i++; // Longs and doubles take up two slots in the constant pool
+                    break;
+                case 6: // Double
+                    pool[i] = data.readDouble();
+                    i++;
+                    break;
+                case 7: // Class
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    // Store the Utf8 index, resolved lazily as class refs are the only ones we need.
+                    pool[i] = new int[]{data.readUnsignedShort()};
+                    break;
+                case 8: // String
+                    data.readUnsignedShort();
+                    break;
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    data.readInt();
+                    break;
+                case 15: // MethodHandle
+                    data.readUnsignedByte();
+                    data.readUnsignedShort();
+                    break;
+                default:
+                    throw new IOException("Unknown constant pool tag: " + tag + " at index " + i);
+            }
+        }
+
+        // access flags
+        data.readUnsignedShort();
+        String className = classRef(pool, data.readUnsignedShort());
+        int superIndex = data.readUnsignedShort();
+        String superName = superIndex == 0 ? null : classRef(pool, superIndex);
+
+        int interfaces = data.readUnsignedShort();
+        skipFully(data, interfaces * 2L);
+
+        skipMembers(data); // fields
+        skipMembers(data); // methods
+
+        Map<String, Map<String, Object>> annotations = new HashMap<>();
+        int attributes = data.readUnsignedShort();
+        for (int i = 0; i < attributes; i++) {
+            String name = (String) pool[data.readUnsignedShort()];
+            long length = data.readInt() & 0xFFFFFFFFL;
+            if (RUNTIME_VISIBLE_ANNOTATIONS.equals(name)) {
+                int count = data.readUnsignedShort();
+                for (int j = 0; j < count; j++) {
+                    String type = (String) pool[data.readUnsignedShort()];
+                    annotations.put(type, readAnnotationValues(data, pool));
+                }
+            } else {
+                skipFully(data, length);
+            }
+        }
+
+        return new ClassHeader(className, superName, Collections.unmodifiableMap(annotations));
+    }
+
+    private static String classRef(Object[] pool, int index) {
+        return (String) pool[((int[]) pool[index])[0]];
+    }
+
+    private static void skipMembers(DataInputStream data) throws IOException {
+        int count = data.readUnsignedShort();
+        for (int i = 0; i < count; i++) {
+            // access flags, name index, descriptor index
+            skipFully(data, 6);
+            int attributes = data.readUnsignedShort();
+            for (int j = 0; j < attributes; j++) {
+                data.readUnsignedShort();
+                skipFully(data, data.readInt() & 0xFFFFFFFFL);
+            }
+        }
+    }
+
+    private static Map<String, Object> readAnnotationValues(DataInputStream data, Object[] pool) throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        int pairs = data.readUnsignedShort();
+        for (int i = 0; i < pairs; i++) {
+            String name = (String) pool[data.readUnsignedShort()];
+            values.put(name, readElementValue(data, pool));
+        }
+        return values;
+    }
+
+    /**
+     * Decodes a single annotation element value. Constants are returned as their boxed value (booleans as Boolean),
+     * class literals as their type descriptor String, enum constants as the constant name, nested annotations as
+     * a Map of their values and arrays as a List of decoded elements.
+     */
+    private static Object readElementValue(DataInputStream data, Object[] pool) throws IOException {
+        int tag = data.readUnsignedByte();
+        switch (tag) {
+            case 'Z':
+                return ((Integer) pool[data.readUnsignedShort()]) != 0;
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 's':
+            case 'c':
+                return pool[data.readUnsignedShort()];
+            case 'e':
+                // Enum type descriptor followed by the constant name
+                data.readUnsignedShort();
+                return pool[data.readUnsignedShort()];
+            case '@':
+                data.readUnsignedShort();
+                return readAnnotationValues(data, pool);
+            case '[':
+                int length = data.readUnsignedShort();
+                List<Object> values = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    values.add(readElementValue(data, pool));
+                }
+                return values;
+            default:
+                throw new IOException("Unknown annotation element tag: " + (char) tag);
+        }
+    }
+
+    private static void skipFully(DataInputStream data, long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = data.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                throw new IOException("Unexpected end of class file.");
+            }
+            bytes -= skipped;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.kraken.loader;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.kraken.api.JsonCodec;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On disk cache of plugin discovery results. Each scanned JAR is recorded with its size, last modified time and
+ * SHA-256 digest alongside the plugin classes found inside it so unchanged JARs never need to be scanned again.
+ */
+@Slf4j
+@Data
+@NoArgsConstructor
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class DiscoveryIndex {
+    /**
+     * Bump whenever the layout of the index or the scanning logic changes so stale indexes are discarded.
+     */
+    public static final int CURRENT_VERSION = 1;
+
+    private int version = CURRENT_VERSION;
+
+    /**
+     * Scanned JARs keyed by their absolute path.
+     */
+    private Map<String, JarEntryInfo> jars = new HashMap<>();
+
+    @Data
+    @NoArgsConstructor
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class JarEntryInfo {
+        private String packageName;
+        private long size;
+        private long lastModified;
+        private String sha256;
+        private List<PluginClassInfo> plugins = new ArrayList<>();
+    }
+
+    /**
+     * Loads the index from disk. A missing, unreadable or outdated index results in an empty index so every
+     * JAR is rescanned.
+     * @param indexFile Path to the index file.
+     * @param codec JsonCodec used to read the index.
+     * @return DiscoveryIndex
+     */
+    public static DiscoveryIndex load(Path indexFile, JsonCodec codec) {
+        if (!Files.isRegularFile(indexFile)) {
+            return new DiscoveryIndex();
+        }
+
+        try {
+            DiscoveryIndex index = codec.reader(codec.type(DiscoveryIndex.class)).readValue(indexFile.toFile());
+            if (index.getVersion() != CURRENT_VERSION || index.getJars() == null) {
+                log.info("Discarding plugin discovery index with version: {}", index.getVersion());
+                return new DiscoveryIndex();
+            }
+            return index;
+        } catch (IOException e) {
+            log.warn("Failed to read plugin discovery index at: {}. Error = {}", indexFile, e.getMessage());
+            return new DiscoveryIndex();
+        }
+    }
+
+    /**
+     * Writes the index to a temporary file and moves it over the existing index so a crash mid write never
+     * leaves a truncated index behind.
+     * @param indexFile Path to the index file.
+     * @param codec JsonCodec used to write the index.
+     */
+    public void save(Path indexFile, JsonCodec codec) {
+        try {
+            Files.createDirectories(indexFile.getParent());
+            Path tmp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+            codec.writer(DiscoveryIndex.class).writeValue(tmp.toFile(), this);
+            Files.move(tmp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to write plugin discovery index to: {}. Error = {}", indexFile, e.getMessage());
+        }
+    }
+}
@@ -1,92 +1,402 @@
 package com.kraken.loader;
 
+import com.google.inject.Inject;
+import com.kraken.api.JsonCodec;
+import com.kraken.api.KrakenTransport;
+import com.kraken.metrics.KrakenMetrics;
+import lombok.AllArgsConstructor;
+import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.List;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
 import java.util.stream.Stream;
 
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
 
 @Slf4j
 public class JarResourceLoader {
 
-    private final List<String> jarPaths = new ArrayList<>();
     private static final String PLUGIN_BASE_CLASS_NAME = "net.runelite.client.plugins.Plugin";
+    private static final int MAX_SCAN_THREADS = 8;
+    private static final int ENTRY_BATCH_SIZE = 256;
+
+    /**
+     * When true JARs are scanned concurrently on a bounded fork join pool. Can be disabled at launch with
+     * -Dkraken.loader.parallel=false
+     */
+    @Setter
+    private boolean parallelScan = Boolean.parseBoolean(System.getProperty("kraken.loader.parallel", "true"));
+
+    /**
+     * Directory which downloaded Kraken plugin JARs are placed in.
+     */
+    public static final File PLUGIN_DIR = new File(RUNELITE_DIR, "kraken/plugins");
+    private static final Path RESOURCES_DIR = Paths.get("src/main/resources");
 
     /**
-     * Handles finding and loading the right JAR files which contain compiled plugin classes. The constructor
-     * will automatically search the resources folder to locate any JAR files.
+     * Header derived info for every plugin class which has been loaded keyed by class name.
+     */
+    private final Map<String, PluginClassInfo> pluginInfo = new ConcurrentHashMap<>();
+
+    private final KrakenMetrics metrics;
+    private final Path indexFile = Paths.get(RUNELITE_DIR.getPath(), "kraken", "plugin-index.json");
+    private final JsonCodec codec;
+
+    /**
+     * Handles finding and loading the right JAR files which contain compiled plugin classes. The resources folder and
+     * the Kraken plugin directory are searched for JAR files on every full load.
      *
      * TODO in the future we need some safety feature here to prevent malicious jars from automatically being loaded.
      */
-    public JarResourceLoader() {
-        Path resourcesDir = Paths.get("src/main/resources");
-        try (Stream<Path> paths = Files.walk(resourcesDir)) {
-            paths.filter(Files::isRegularFile)
-                    .filter(path -> path.toString().endsWith(".jar"))
-                    .forEach(e -> jarPaths.add(e.toFile().getPath()));
-
-            log.info("Found: {} Kraken jar files.", jarPaths.size());
-        } catch (IOException e) {
-            log.error("Error reading jar file paths: {}", e.getMessage());
-            e.printStackTrace();
+    @Inject
+    public JarResourceLoader(KrakenMetrics metrics, KrakenTransport transport) {
+        this.metrics = metrics;
+        this.codec = transport.getCodec();
+    }
+
+    /**
+     * Returns the info read from the class file header of a loaded plugin class. Classes which were not loaded by
+     * this loader fall back to reading the @PluginDescriptor annotation from the class.
+     * @param pluginClass Class a plugin class.
+     * @return PluginClassInfo
+     */
+    public PluginClassInfo getPluginInfo(Class<?> pluginClass) {
+        PluginClassInfo info = pluginInfo.get(pluginClass.getName());
+        return info != null ? info : PluginClassInfo.fromClass(pluginClass);
+    }
+
+    /**
+     * Returns the directories which are searched for plugin JAR files.
+     * @return List of directories.
+     */
+    public List<Path> getJarDirectories() {
+        return Arrays.asList(RESOURCES_DIR, PLUGIN_DIR.toPath());
+    }
+
+    /**
+     * Walks the plugin directories and returns the path of every JAR file found.
+     * @return List of JAR paths.
+     */
+    public List<String> discoverJarPaths() {
+        List<String> discovered = new ArrayList<>();
+        for (Path dir : getJarDirectories()) {
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+
+            try (Stream<Path> paths = Files.walk(dir)) {
+                paths.filter(Files::isRegularFile)
+                        .filter(path -> path.toString().endsWith(".jar"))
+                        .forEach(e -> discovered.add(e.toFile().getPath()));
+            } catch (IOException e) {
+                log.error("Error reading jar file paths: {}", e.getMessage());
+                e.printStackTrace();
+            }
         }
+        return discovered;
     }
 
     /**
-     * Loads the class which extends net.runelite.client.plugins.Plugin for each discovered JAR file.
+     * Loads the class which extends net.runelite.client.plugins.Plugin for each discovered JAR file. The plugin
+     * directories are walked again on every call so JARs added or removed since the last load are picked up. Candidate classes
+     * are inspected by reading their class file headers straight from the JAR so only the actual plugin classes are
+     * ever defined by the class loader. When parallel scanning is enabled the JARs (and batches of entries within
+     * large JARs) are scanned on a bounded fork join pool. Results are always returned in JAR discovery order.
+     *
+     * Plugin classes are defined by a long-lived loader opened through the registry. JARs which contain no plugins
+     * have their loader released straight away.
+     * @param packageName String the package (in internal / form) to scan.
+     * @param classLoaders PluginClassLoaderRegistry the registry which owns the per JAR class loaders.
      * @return List of Plugin classes.
      * @throws MalformedURLException
      */
-    public List<Class<?>> loadPluginClasses(final String packageName) throws MalformedURLException {
+    public List<Class<?>> loadPluginClasses(final String packageName, PluginClassLoaderRegistry classLoaders) throws MalformedURLException {
+        List<String> jarPaths;
+        try (KrakenMetrics.Timer timer = metrics.time("jarWalk")) {
+            jarPaths = discoverJarPaths();
+        }
+        metrics.set("jars", jarPaths.size());
+        log.info("Found: {} Kraken jar files.", jarPaths.size());
+        return loadPluginClasses(packageName, classLoaders, jarPaths);
+    }
+
+    /**
+     * Loads the plugin classes from a specific set of JAR files. This is used to load only the JARs which were
+     * added or changed while the client is running.
+     * @param packageName String the package (in internal / form) to scan.
+     * @param classLoaders PluginClassLoaderRegistry the registry which owns the per JAR class loaders.
+     * @param jars List of JAR paths to load.
+     * @return List of Plugin classes.
+     */
+    public List<Class<?>> loadPluginClasses(final String packageName, PluginClassLoaderRegistry classLoaders, List<String> jars) {
+        DiscoveryIndex index = DiscoveryIndex.load(indexFile, codec);
+        Map<String, DiscoveryIndex.JarEntryInfo> scanned = new ConcurrentHashMap<>();
+        List<Class<?>> classes = scanJars(packageName, jars, classLoaders, index, scanned);
+
+        // Entries for jars which were not part of this load are kept as long as the jar still exists on disk so
+        // removed jars fall out of the index.
+        Map<String, DiscoveryIndex.JarEntryInfo> merged = new TreeMap<>();
+        index.getJars().forEach((jarPath, entry) -> {
+            if (Files.isRegularFile(Paths.get(jarPath))) {
+                merged.put(jarPath, entry);
+            }
+        });
+        merged.putAll(scanned);
+
+        if (!merged.equals(index.getJars())) {
+            DiscoveryIndex updated = new DiscoveryIndex();
+            updated.setJars(merged);
+            updated.save(indexFile, codec);
+        }
+        return classes;
+    }
+
+    private List<Class<?>> scanJars(String packageName, List<String> jars, PluginClassLoaderRegistry classLoaders,
+                                    DiscoveryIndex index, Map<String, DiscoveryIndex.JarEntryInfo> scanned) {
         List<Class<?>> classes = new ArrayList<>();
 
-        for (String jarPath : this.jarPaths) {
-            URL url = new URL("file:" + jarPath);
-
-            try (URLClassLoader loader = new URLClassLoader(new URL[]{url})) {
-                try (JarFile jarFile = new JarFile(jarPath)) {
-                    Enumeration<JarEntry> entries = jarFile.entries();
-
-                    while (entries.hasMoreElements()) {
-                        JarEntry entry = entries.nextElement();
-                        String name = entry.getName();
-
-                        // Load both classes and anonymous inner classes with $1 in the class name
-                        if (name.endsWith(".class") && name.startsWith(packageName)) {
-                            String className = name.substring(0, name.length() - 6)
-                                    .replace('/', '.');
-                            Class<?> potentialPluginClass = loader.loadClass(className);
-                            log.debug("Loaded class: {}", className);
-                            if(potentialPluginClass.getSuperclass() != null) {
-                                if (potentialPluginClass.getSuperclass().getName().equals(PLUGIN_BASE_CLASS_NAME)) {
-                                    log.debug("Main Plugin Class located: {}", className);
-                                    classes.add(potentialPluginClass);
-                                }
-                            }
-                        }
-                    }
-
-                } catch (IOException e) {
-                    log.error("Failed to load jar classes. {}", e.getMessage());
-                } catch (ClassNotFoundException e) {
-                    log.error("No class found. Error = {}", e.getMessage());
-                    e.printStackTrace();
+        if (!parallelScan || jars.size() <= 1) {
+            for (String jarPath : jars) {
+                classes.addAll(loadJar(jarPath, packageName, classLoaders, index, scanned, null));
+            }
+            return classes;
+        }
+
+        int parallelism = Math.min(MAX_SCAN_THREADS, Runtime.getRuntime().availableProcessors());
+        ForkJoinPool pool = new ForkJoinPool(parallelism, scanThreadFactory(), null, false);
+        try {
+            List<ForkJoinTask<List<Class<?>>>> tasks = new ArrayList<>();
+            for (String jarPath : jars) {
+                tasks.add(pool.submit(() -> loadJar(jarPath, packageName, classLoaders, index, scanned, pool)));
+            }
+
+            // Join in submission order so the merged result is deterministic regardless of which jar finishes first.
+            for (int i = 0; i < tasks.size(); i++) {
+                try {
+                    classes.addAll(tasks.get(i).join());
+                } catch (RuntimeException e) {
+                    log.error("Failed to scan jar: {}. Error = {}", jars.get(i), e.getMessage());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        log.debug("Scanned {} jars in parallel with {} worker(s).", jars.size(), parallelism);
+        return classes;
+    }
+
+    /**
+     * Resolves the plugin classes within a single JAR and loads them. When the JAR matches its entry in the
+     * discovery index the plugin class names are taken from the index and the JAR is not scanned at all. Otherwise the
+     * JAR's class loader is opened first and the scan reads the same mapped private copy the classes are defined from,
+     * so the original JAR is only read once, by the copy.
+     * @param jarPath String path to the JAR file.
+     * @param packageName String the package (in internal / form) to scan.
+     * @param classLoaders PluginClassLoaderRegistry the registry which owns the per JAR class loaders.
+     * @param index DiscoveryIndex the index loaded from disk.
+     * @param scanned Map which receives the up-to-date index entry for this JAR.
+     * @param scanPool ForkJoinPool the bounded scan pool this JAR is loaded on or null when scanning sequentially.
+     * @return List of Plugin classes found in the JAR.
+     */
+    private List<Class<?>> loadJar(String jarPath, String packageName, PluginClassLoaderRegistry classLoaders,
+                                   DiscoveryIndex index, Map<String, DiscoveryIndex.JarEntryInfo> scanned, ForkJoinPool scanPool) {
+        List<Class<?>> classes = new ArrayList<>();
+        String key = Paths.get(jarPath).toAbsolutePath().normalize().toString();
+
+        try {
+            Path path = Paths.get(jarPath);
+            long size = Files.size(path);
+            long lastModified = Files.getLastModifiedTime(path).toMillis();
+            DiscoveryIndex.JarEntryInfo cached = index.getJars().get(key);
+
+            DiscoveryIndex.JarEntryInfo entry = null;
+            if (cached != null && packageName.equals(cached.getPackageName()) && cached.getSize() == size && cached.getLastModified() == lastModified) {
+                log.debug("Jar: {} unchanged, using discovery index.", jarPath);
+                entry = cached;
+            }
+
+            PluginClassLoader loader = null;
+            if (entry == null) {
+                loader = classLoaders.open(jarPath);
+                try (KrakenMetrics.Timer timer = metrics.time("classScan")) {
+                    entry = resolveEntry(loader.getJar(), packageName, size, lastModified, cached, scanPool);
                 }
-            } catch (IOException e) {
-                log.error("Failed to create URLClassLoader. Error = {}", e.getMessage());
             }
+            scanned.put(key, entry);
+            if (entry.getPlugins().isEmpty()) {
+                log.debug("No plugin classes found in jar: {}", jarPath);
+                classLoaders.release(jarPath);
+                return classes;
+            }
+
+            if (loader == null) {
+                loader = classLoaders.open(jarPath);
+            }
+            try (KrakenMetrics.Timer timer = metrics.time("classDefine")) {
+                classes.addAll(definePluginClasses(loader, entry));
+            } catch (ClassNotFoundException e) {
+                // The index disagrees with the jar contents, fall back to a full scan of this jar.
+                log.warn("Indexed plugin class missing from jar: {}. Rescanning. Error = {}", jarPath, e.getMessage());
+                classes.clear();
+                entry = resolveEntry(loader.getJar(), packageName, size, lastModified, null, scanPool);
+                scanned.put(key, entry);
+                classes.addAll(definePluginClasses(loader, entry));
+            }
+        } catch (ClassNotFoundException e) {
+            log.error("No class found. Error = {}", e.getMessage());
+            e.printStackTrace();
+        } catch (IOException e) {
+            log.error("Failed to load jar classes. {}", e.getMessage());
+        }
+
+        if (classes.isEmpty()) {
+            classLoaders.release(jarPath);
         }
         return classes;
     }
+
+    private List<Class<?>> definePluginClasses(ClassLoader loader, DiscoveryIndex.JarEntryInfo entry) throws ClassNotFoundException {
+        List<Class<?>> classes = new ArrayList<>();
+        for (PluginClassInfo info : entry.getPlugins()) {
+            classes.add(loader.loadClass(info.getClassName()));
+            pluginInfo.put(info.getClassName(), info);
+            log.debug("Main Plugin Class located: {}", info.getClassName());
+        }
+        return classes;
+    }
+
+    /**
+     * Builds the index entry for a JAR whose size or last modified time no longer matches the index. When the size
+     * still matches, the SHA-256 digest of the mapped copy decides whether the cached plugin list can be reused. Any
+     * other mismatch results in a full scan of the mapped copy.
+     * @param jar MappedJarFile the mapped private copy of the JAR.
+     * @param packageName String the package (in internal / form) to scan.
+     * @param size long the size of the original JAR.
+     * @param lastModified long the last modified time of the original JAR.
+     * @param cached The cached entry for the JAR or null if there is none.
+     * @param scanPool ForkJoinPool the bounded scan pool or null when scanning sequentially.
+     * @return DiscoveryIndex.JarEntryInfo
+     * @throws IOException
+     */
+    private DiscoveryIndex.JarEntryInfo resolveEntry(MappedJarFile jar, String packageName, long size, long lastModified,
+                                                     DiscoveryIndex.JarEntryInfo cached, ForkJoinPool scanPool) throws IOException {
+        DiscoveryIndex.JarEntryInfo entry = new DiscoveryIndex.JarEntryInfo();
+        entry.setPackageName(packageName);
+        entry.setSize(size);
+        entry.setLastModified(lastModified);
+        entry.setSha256(jar.sha256());
+
+        if (cached != null && packageName.equals(cached.getPackageName()) && cached.getSize() == size && entry.getSha256().equals(cached.getSha256())) {
+            log.debug("Jar: {} touched but contents unchanged, using discovery index.", jar.getPath());
+            entry.setPlugins(cached.getPlugins());
+        } else {
+            entry.setPlugins(findPlugins(jar, packageName, scanPool));
+        }
+        return entry;
+    }
+
+    /**
+     * Scans the class file headers of every class within the package and returns info for the classes which
+     * directly extend the RuneLite Plugin class. No classes are defined or linked while scanning. Large JARs scanned
+     * from within the bounded scan pool are split into batches of entries which are scanned concurrently, a JAR is
+     * never batched when parallel scanning is disabled or when it is scanned from any other fork join pool, i.e. the
+     * common pool.
+     * @param jar MappedJarFile the mapped jar to scan.
+     * @param packageName String the package (in internal / form) to scan.
+     * @param scanPool ForkJoinPool the bounded scan pool or null when scanning sequentially.
+     * @return List of plugin class info.
+     */
+    private List<PluginClassInfo> findPlugins(MappedJarFile jar, String packageName, ForkJoinPool scanPool) {
+        List<String> candidates = new ArrayList<>();
+        long scanBytes = 0;
+        for (String name : jar.getEntryNames()) {
+            // Check both classes and anonymous inner classes with $1 in the class name
+            if (name.endsWith(".class") && name.startsWith(packageName)) {
+                candidates.add(name);
+                scanBytes += Math.max(0, jar.getSize(name));
+            }
+        }
+        metrics.increment("scanBytes:" + jar.getPath().getFileName(), scanBytes);
+
+        if (parallelScan && scanPool != null && ForkJoinTask.getPool() == scanPool && candidates.size() > ENTRY_BATCH_SIZE) {
+            return new HeaderScanTask(jar, candidates, 0, candidates.size()).invoke();
+        }
+        return scanHeaders(jar, candidates, 0, candidates.size());
+    }
+
+    private static List<PluginClassInfo> scanHeaders(MappedJarFile jar, List<String> entries, int from, int to) {
+        List<PluginClassInfo> plugins = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            String name = entries.get(i);
+            try {
+                ByteBuffer bytes = jar.read(name);
+                if (bytes == null) {
+                    continue;
+                }
+
+                ClassHeader header = ClassHeader.read(new ByteBufferInputStream(bytes));
+                log.debug("Scanned class header: {}", header.getQualifiedName());
+                if (header.extendsClass(PLUGIN_BASE_CLASS_NAME)) {
+                    plugins.add(PluginClassInfo.fromHeader(header));
+                }
+            } catch (IOException e) {
+                log.error("Failed to read class header for entry: {}. Error = {}", name, e.getMessage());
+            }
+        }
+        return plugins;
+    }
+
+    private static ForkJoinPool.ForkJoinWorkerThreadFactory scanThreadFactory() {
+        return pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("kraken-jar-scan-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Splits a range of JAR entries in half until each batch is small enough to scan directly. Results are
+     * concatenated left to right so the order matches the JAR's central directory.
+     */
+    @AllArgsConstructor
+    private static class HeaderScanTask extends RecursiveTask<List<PluginClassInfo>> {
+        private final MappedJarFile jar;
+        private final List<String> entries;
+        private final int from;
+        private final int to;
+
+        @Override
+        protected List<PluginClassInfo> compute() {
+            if (to - from <= ENTRY_BATCH_SIZE) {
+                return scanHeaders(jar, entries, from, to);
+            }
+
+            int mid = (from + to) >>> 1;
+            HeaderScanTask left = new HeaderScanTask(jar, entries, from, mid);
+            HeaderScanTask right = new HeaderScanTask(jar, entries, mid, to);
+            right.fork();
+            List<PluginClassInfo> plugins = left.compute();
+            plugins.addAll(right.join());
+            return plugins;
+        }
+    }
 }
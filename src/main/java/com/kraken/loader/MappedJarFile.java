@@ -0,0 +1,330 @@
+package com.kraken.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A read only view of a JAR file which is memory mapped once when opened. The central directory is parsed up front
+ * into an index of entry name to offset so individual entries can be read straight from the mapped buffer without
+ * going back through JarFile / ZipFile streams.
+ *
+ * A mapping can not be released deterministically, it lives until the buffer is garbage collected. While a file is
+ * mapped Windows refuses to replace or delete it, and rewriting it in place elsewhere corrupts classes which are still
+ * to be loaded lazily from the mapping. Plugin JARs are therefore opened with {@link #openShadowCopy(Path, Path)}
+ * which maps a private copy, leaving the original free to be updated.
+ *
+ * Only stored and deflated entries are supported. ZIP64 archives (over 4GB or 65535 entries) are rejected.
+ */
+@Slf4j
+public class MappedJarFile implements Closeable {
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final Path path;
+    private final Path shadowCopy;
+    private volatile MappedByteBuffer buffer;
+    private volatile Map<String, Entry> entries;
+
+    private static class Entry {
+        private final int method;
+        private final int localHeaderOffset;
+        private final int compressedSize;
+        private final int size;
+
+        private Entry(int method, int localHeaderOffset, int compressedSize, int size) {
+            this.method = method;
+            this.localHeaderOffset = localHeaderOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Maps the JAR file into memory and builds the entry index.
+     * @param path Path to the JAR file.
+     * @throws IOException When the file cannot be mapped or is not a supported zip archive.
+     */
+    public MappedJarFile(Path path) throws IOException {
+        this(path, null);
+    }
+
+    private MappedJarFile(Path path, Path shadowCopy) throws IOException {
+        this.path = path;
+        this.shadowCopy = shadowCopy;
+        try (FileChannel channel = FileChannel.open(shadowCopy != null ? shadowCopy : path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Jar is too large to map: " + path);
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = readCentralDirectory(buffer);
+    }
+
+    /**
+     * Copies a JAR into a shadow directory and maps the copy. The original JAR is never mapped so it can be replaced
+     * or deleted while its classes are loaded.
+     * @param path Path to the JAR file.
+     * @param shadowDir Path the directory which holds the private copies.
+     * @return MappedJarFile
+     * @throws IOException When the JAR cannot be copied or mapped.
+     */
+    public static MappedJarFile openShadowCopy(Path path, Path shadowDir) throws IOException {
+        Files.createDirectories(shadowDir);
+        String name = path.getFileName().toString();
+        Path copy = Files.createTempFile(shadowDir, name.endsWith(".jar") ? name.substring(0, name.length() - 4) + "-" : name + "-", ".jar");
+        try {
+            Files.copy(path, copy, StandardCopyOption.REPLACE_EXISTING);
+            return new MappedJarFile(path, copy);
+        } catch (IOException e) {
+            Files.deleteIfExists(copy);
+            throw e;
+        }
+    }
+
+    /**
+     * Deletes the shadow copies left behind by earlier sessions. Copies which are still mapped, i.e. by another client
+     * on Windows, can not be deleted and are skipped.
+     * @param shadowDir Path the directory which holds the private copies.
+     */
+    public static void deleteShadowCopies(Path shadowDir) {
+        if (!Files.isDirectory(shadowDir)) {
+            return;
+        }
+
+        try (DirectoryStream<Path> copies = Files.newDirectoryStream(shadowDir, "*.jar")) {
+            for (Path copy : copies) {
+                try {
+                    Files.deleteIfExists(copy);
+                } catch (IOException e) {
+                    log.debug("Shadow copy: {} is still in use. Error = {}", copy, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to list shadow copies in: {}. Error = {}", shadowDir, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns true when the JAR contains an entry with the given name.
+     * @param name String entry name i.e. com/krakenplugins/example/ExamplePlugin.class
+     * @return boolean
+     */
+    public boolean contains(String name) {
+        Map<String, Entry> index = entries;
+        return index != null && index.containsKey(name);
+    }
+
+    /**
+     * Returns the path of the original JAR, never the path of a shadow copy.
+     * @return Path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the names of every entry in the JAR in central directory order.
+     * @return Set of entry names.
+     */
+    public Set<String> getEntryNames() {
+        Map<String, Entry> index = entries;
+        return index == null ? Collections.emptySet() : Collections.unmodifiableSet(index.keySet());
+    }
+
+    /**
+     * Returns the uncompressed size of an entry or -1 when the entry does not exist.
+     * @param name String entry name.
+     * @return long
+     */
+    public long getSize(String name) {
+        Map<String, Entry> index = entries;
+        Entry entry = index == null ? null : index.get(name);
+        return entry == null ? -1 : entry.size;
+    }
+
+    /**
+     * Reads the contents of an entry. Stored entries are returned as a slice of the mapped buffer, deflated entries
+     * are inflated directly from the mapped buffer into a new buffer of the entry's uncompressed size.
+     * @param name String entry name.
+     * @return ByteBuffer positioned at the start of the entry data or null when the entry does not exist.
+     * @throws IOException When the JAR has been closed or the entry data is corrupt.
+     */
+    public ByteBuffer read(String name) throws IOException {
+        MappedByteBuffer mapped = buffer;
+        Map<String, Entry> index = entries;
+        if (mapped == null || index == null) {
+            throw new IOException("Jar has been closed: " + path);
+        }
+
+        Entry entry = index.get(name);
+        if (entry == null) {
+            return null;
+        }
+
+        if (mapped.getInt(entry.localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Bad local header for entry: " + name + " in jar: " + path);
+        }
+
+        int nameLength = Short.toUnsignedInt(mapped.getShort(entry.localHeaderOffset + 26));
+        int extraLength = Short.toUnsignedInt(mapped.getShort(entry.localHeaderOffset + 28));
+        int start = entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+
+        ByteBuffer data = mapped.duplicate();
+        data.position(start).limit(start + entry.compressedSize);
+        data = data.slice();
+
+        if (entry.method == METHOD_STORED) {
+            return data;
+        }
+
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteBuffer out = ByteBuffer.allocate(entry.size);
+            while (out.hasRemaining() && !inflater.finished()) {
+                if (inflater.inflate(out) == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate data for entry: " + name + " in jar: " + path);
+                }
+            }
+            out.flip();
+            return out;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate data for entry: " + name + " in jar: " + path, e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns the hex encoded SHA-256 digest of the mapped file. The digest is computed from memory, the file is not
+     * read again.
+     * @return String
+     * @throws IOException When the JAR has been closed.
+     */
+    public String sha256() throws IOException {
+        MappedByteBuffer mapped = buffer;
+        if (mapped == null) {
+            throw new IOException("Jar has been closed: " + path);
+        }
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available.", e);
+        }
+        digest.update(mapped.duplicate().clear());
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Drops the entry index and the reference to the mapped buffer. The mapping itself is released by the
+     * garbage collector once no slices handed out by {@link #read(String)} remain reachable. A shadow copy is deleted
+     * straight away where the OS allows it, otherwise it is removed by {@link #deleteShadowCopies(Path)} on the next
+     * start.
+     */
+    @Override
+    public void close() {
+        buffer = null;
+        entries = null;
+
+        if (shadowCopy != null) {
+            try {
+                Files.deleteIfExists(shadowCopy);
+            } catch (IOException e) {
+                log.debug("Shadow copy: {} is still mapped and will be deleted on the next start. Error = {}", shadowCopy, e.getMessage());
+            }
+        }
+    }
+
+    private Map<String, Entry> readCentralDirectory(ByteBuffer mapped) throws IOException {
+        int eocd = findEndOfCentralDirectory(mapped);
+        int count = Short.toUnsignedInt(mapped.getShort(eocd + 10));
+        long directorySize = Integer.toUnsignedLong(mapped.getInt(eocd + 12));
+        long directoryOffset = Integer.toUnsignedLong(mapped.getInt(eocd + 16));
+
+        if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            throw new IOException("ZIP64 jars are not supported: " + path);
+        }
+
+        Map<String, Entry> index = new LinkedHashMap<>(count * 2);
+        int offset = (int) directoryOffset;
+        for (int i = 0; i < count; i++) {
+            if (mapped.getInt(offset) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new IOException("Bad central directory header in jar: " + path);
+            }
+
+            int method = Short.toUnsignedInt(mapped.getShort(offset + 10));
+            long compressedSize = Integer.toUnsignedLong(mapped.getInt(offset + 20));
+            long size = Integer.toUnsignedLong(mapped.getInt(offset + 24));
+            int nameLength = Short.toUnsignedInt(mapped.getShort(offset + 28));
+            int extraLength = Short.toUnsignedInt(mapped.getShort(offset + 30));
+            int commentLength = Short.toUnsignedInt(mapped.getShort(offset + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(mapped.getInt(offset + 42));
+
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new IOException("ZIP64 jars are not supported: " + path);
+            }
+
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameBuffer = mapped.duplicate();
+            nameBuffer.position(offset + CENTRAL_DIRECTORY_HEADER_SIZE);
+            nameBuffer.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            if (!name.endsWith("/")) {
+                if (method != METHOD_STORED && method != METHOD_DEFLATED) {
+                    throw new IOException("Unsupported compression method: " + method + " for entry: " + name + " in jar: " + path);
+                }
+                index.put(name, new Entry(method, (int) localHeaderOffset, (int) compressedSize, (int) size));
+            }
+
+            offset += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return index;
+    }
+
+    private int findEndOfCentralDirectory(ByteBuffer mapped) throws IOException {
+        int last = mapped.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+        int first = Math.max(0, last - MAX_COMMENT_LENGTH);
+        for (int i = last; i >= first; i--) {
+            if (mapped.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return i;
+            }
+        }
+        throw new IOException("No end of central directory record found, not a jar: " + path);
+    }
+}
@@ -0,0 +1,103 @@
+package com.kraken.loader;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import net.runelite.client.plugins.PluginDependency;
+import net.runelite.client.plugins.PluginDescriptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lightweight description of a plugin class built purely from its class file header. This holds everything the
+ * loader and UI need to know about a plugin without defining or instantiating the class.
+ */
+@Data
+@NoArgsConstructor
+public class PluginClassInfo {
+    private static final String PLUGIN_DESCRIPTOR = "net.runelite.client.plugins.PluginDescriptor";
+    private static final String PLUGIN_DEPENDENCY = "net.runelite.client.plugins.PluginDependency";
+    private static final String PLUGIN_DEPENDENCIES = "net.runelite.client.plugins.PluginDependencies";
+
+    private String className;
+    private String name;
+    private String description = "";
+    private String[] tags = new String[0];
+    private boolean hidden;
+
+    /**
+     * Fully qualified class names of the plugins declared with @PluginDependency.
+     */
+    private List<String> dependencies = new ArrayList<>();
+
+    /**
+     * Builds plugin info from the @PluginDescriptor and @PluginDependency annotations on a class header.
+     * @param header ClassHeader the header of a class extending Plugin.
+     * @return PluginClassInfo
+     */
+    @SuppressWarnings("unchecked")
+    public static PluginClassInfo fromHeader(ClassHeader header) {
+        PluginClassInfo info = new PluginClassInfo();
+        info.setClassName(header.getQualifiedName());
+
+        Map<String, Object> descriptor = header.getAnnotation(PLUGIN_DESCRIPTOR);
+        if (descriptor != null) {
+            info.setName((String) descriptor.get("name"));
+            info.setDescription((String) descriptor.getOrDefault("description", ""));
+            info.setHidden((Boolean) descriptor.getOrDefault("hidden", false));
+            List<Object> tags = (List<Object>) descriptor.get("tags");
+            if (tags != null) {
+                info.setTags(tags.toArray(new String[0]));
+            }
+        }
+
+        Map<String, Object> dependency = header.getAnnotation(PLUGIN_DEPENDENCY);
+        if (dependency != null) {
+            info.getDependencies().add(descriptorToClassName((String) dependency.get("value")));
+        }
+
+        // Repeated @PluginDependency annotations are compiled into the @PluginDependencies container.
+        Map<String, Object> container = header.getAnnotation(PLUGIN_DEPENDENCIES);
+        if (container != null && container.get("value") != null) {
+            for (Object value : (List<Object>) container.get("value")) {
+                Map<String, Object> nested = (Map<String, Object>) value;
+                info.getDependencies().add(descriptorToClassName((String) nested.get("value")));
+            }
+        }
+
+        if (info.getName() == null) {
+            info.setName(info.getClassName().substring(info.getClassName().lastIndexOf('.') + 1));
+        }
+        return info;
+    }
+
+    /**
+     * Builds plugin info from the annotations of an already loaded class such as the Kraken loader plugin itself.
+     * @param pluginClass Class a plugin class.
+     * @return PluginClassInfo
+     */
+    public static PluginClassInfo fromClass(Class<?> pluginClass) {
+        PluginClassInfo info = new PluginClassInfo();
+        info.setClassName(pluginClass.getName());
+        info.setName(pluginClass.getSimpleName());
+
+        PluginDescriptor descriptor = pluginClass.getAnnotation(PluginDescriptor.class);
+        if (descriptor != null) {
+            info.setName(descriptor.name());
+            info.setDescription(descriptor.description());
+            info.setTags(descriptor.tags());
+            info.setHidden(descriptor.hidden());
+        }
+
+        for (PluginDependency dependency : pluginClass.getAnnotationsByType(PluginDependency.class)) {
+            info.getDependencies().add(dependency.value().getName());
+        }
+        return info;
+    }
+
+    private static String descriptorToClassName(String descriptor) {
+        // Class literals are stored as field descriptors: Lcom/example/Foo;
+        return descriptor.substring(1, descriptor.length() - 1).replace('/', '.');
+    }
+}
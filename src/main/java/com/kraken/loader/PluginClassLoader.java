@@ -0,0 +1,180 @@
+package com.kraken.loader;
+
+import lombok.Getter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Class loader for a single Kraken plugin JAR. A private copy of the JAR is memory mapped once when the loader is
+ * created and both classes and resources are served from the mapped buffer through its entry index. The loader stays
+ * open for as long as the plugins within the JAR are loaded so classes referenced lazily by a running plugin can always
+ * be resolved.
+ */
+public class PluginClassLoader extends ClassLoader implements Closeable {
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final String RESOURCE_PROTOCOL = "krakenjar";
+
+    @Getter
+    private final String jarPath;
+
+    private final MappedJarFile jar;
+    private final ProtectionDomain protectionDomain;
+    private final URLStreamHandler resourceHandler = new MappedResourceHandler();
+    private final AtomicInteger definedClasses = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * @param jarPath String path to the JAR file.
+     * @param parent ClassLoader the parent class loader.
+     * @param shadowDir Path the directory the private copy of the JAR is placed in.
+     * @throws IOException When the JAR cannot be copied or mapped.
+     */
+    public PluginClassLoader(String jarPath, ClassLoader parent, Path shadowDir) throws IOException {
+        super(parent);
+        this.jarPath = jarPath;
+        this.jar = MappedJarFile.openShadowCopy(Paths.get(jarPath), shadowDir);
+        URL jarUrl = Paths.get(jarPath).toUri().toURL();
+        this.protectionDomain = new ProtectionDomain(new CodeSource(jarUrl, (Certificate[]) null), null, this, null);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        if (closed) {
+            throw new ClassNotFoundException(name + " (class loader for " + jarPath + " has been closed)");
+        }
+
+        ByteBuffer bytes;
+        try {
+            bytes = jar.read(name.replace('.', '/') + ".class");
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+
+        if (bytes == null) {
+            throw new ClassNotFoundException(name);
+        }
+
+        definePackageFor(name);
+        bytesRead.addAndGet(bytes.remaining());
+        Class<?> clazz = defineClass(name, bytes, protectionDomain);
+        definedClasses.incrementAndGet();
+        return clazz;
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        if (closed || !jar.contains(name)) {
+            return null;
+        }
+
+        try {
+            return new URL(RESOURCE_PROTOCOL, null, -1, "/" + name, resourceHandler);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        URL url = findResource(name);
+        return url == null ? Collections.emptyEnumeration() : Collections.enumeration(Collections.singletonList(url));
+    }
+
+    /**
+     * Returns the number of classes this loader has defined from its JAR.
+     * @return int
+     */
+    public int getDefinedClassCount() {
+        return definedClasses.get();
+    }
+
+    /**
+     * Returns the number of class and resource bytes this loader has read from its JAR.
+     * @return long
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * Returns the mapped private copy of the JAR, so the JAR can be scanned without reading the original again.
+     * @return MappedJarFile
+     */
+    MappedJarFile getJar() {
+        return jar;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        jar.close();
+    }
+
+    private void definePackageFor(String className) {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot == -1) {
+            return;
+        }
+
+        String packageName = className.substring(0, lastDot);
+        if (getDefinedPackage(packageName) == null) {
+            try {
+                definePackage(packageName, null, null, null, null, null, null, null);
+            } catch (IllegalArgumentException e) {
+                // Another thread defined the package first.
+            }
+        }
+    }
+
+    /**
+     * Opens resource URLs handed out by {@link #findResource(String)} directly against the mapped JAR.
+     */
+    private class MappedResourceHandler extends URLStreamHandler {
+        @Override
+        protected URLConnection openConnection(URL url) {
+            String name = url.getPath().substring(1);
+            return new URLConnection(url) {
+                @Override
+                public void connect() {
+                    connected = true;
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    return jar.getSize(name);
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    ByteBuffer bytes = jar.read(name);
+                    if (bytes == null) {
+                        throw new IOException("Resource: " + name + " not found in jar: " + jarPath);
+                    }
+                    bytesRead.addAndGet(bytes.remaining());
+                    return new ByteBufferInputStream(bytes);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.kraken.loader;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * Tracks the single long-lived class loader opened for each Kraken plugin JAR. Loaders are opened on first use and
+ * remain open until they are explicitly released when the plugins from that JAR are unloaded.
+ *
+ * Each loader maps a private copy of its JAR from SHADOW_DIR so the downloader and hot reload can replace the JAR
+ * itself while its plugins are running.
+ */
+@Slf4j
+public class PluginClassLoaderRegistry {
+    public static final File SHADOW_DIR = new File(RUNELITE_DIR, "kraken/shadow");
+
+    private final Map<String, PluginClassLoader> loaders = new ConcurrentHashMap<>();
+    private final Path shadowDir;
+
+    public PluginClassLoaderRegistry() {
+        this(SHADOW_DIR.toPath());
+    }
+
+    /**
+     * @param shadowDir Path the directory which holds the private copies of opened JARs. Copies left behind by
+     * earlier sessions are deleted.
+     */
+    public PluginClassLoaderRegistry(Path shadowDir) {
+        this.shadowDir = shadowDir;
+        MappedJarFile.deleteShadowCopies(shadowDir);
+    }
+
+    /**
+     * Returns the open class loader for a JAR, creating one if the JAR has not been opened yet.
+     * @param jarPath String path to the JAR file.
+     * @return PluginClassLoader
+     * @throws IOException When the JAR cannot be copied or memory mapped.
+     */
+    public PluginClassLoader open(String jarPath) throws IOException {
+        String key = key(jarPath);
+        PluginClassLoader existing = loaders.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        PluginClassLoader loader = new PluginClassLoader(key, getClass().getClassLoader(), shadowDir);
+        PluginClassLoader raced = loaders.putIfAbsent(key, loader);
+        if (raced != null) {
+            loader.close();
+            return raced;
+        }
+
+        log.debug("Opened class loader for jar: {}", key);
+        return loader;
+    }
+
+    /**
+     * Closes and forgets the class loader for a JAR. Plugins from the JAR must already be stopped and removed from
+     * RuneLite's plugin manager before their loader is released.
+     * @param jarPath String path to the JAR file.
+     */
+    public void release(String jarPath) {
+        PluginClassLoader loader = loaders.remove(key(jarPath));
+        if (loader == null) {
+            return;
+        }
+
+        log.debug("Releasing class loader for jar: {} which defined {} class(es).", loader.getJarPath(), loader.getDefinedClassCount());
+        loader.close();
+    }
+
+    /**
+     * Closes every open class loader.
+     */
+    public void releaseAll() {
+        for (String jarPath : loaders.keySet()) {
+            release(jarPath);
+        }
+    }
+
+    /**
+     * Returns the path of the JAR which a class was loaded from or null if it was not loaded by a registered loader.
+     * @param clazz Class to look up.
+     * @return String path to the JAR file.
+     */
+    public String jarFor(Class<?> clazz) {
+        ClassLoader loader = clazz.getClassLoader();
+        if (loader instanceof PluginClassLoader && loaders.get(((PluginClassLoader) loader).getJarPath()) == loader) {
+            return ((PluginClassLoader) loader).getJarPath();
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of classes defined by each open loader keyed by JAR path.
+     * @return Map of JAR path to defined class count.
+     */
+    public Map<String, Integer> getDefinedClassCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        loaders.forEach((jarPath, loader) -> counts.put(jarPath, loader.getDefinedClassCount()));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Returns every open class loader.
+     * @return Collection of loaders.
+     */
+    public Collection<PluginClassLoader> getLoaders() {
+        return Collections.unmodifiableCollection(loaders.values());
+    }
+
+    private static String key(String jarPath) {
+        return Paths.get(jarPath).toAbsolutePath().normalize().toString();
+    }
+}
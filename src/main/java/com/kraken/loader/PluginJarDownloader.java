@@ -0,0 +1,190 @@
+package com.kraken.loader;
+
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kraken.api.KrakenClient;
+import lombok.NonNull;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Downloads plugin JARs into the Kraken plugin directory. Each download is streamed straight to a ".part" file
+ * through a FileChannel while its SHA-256 digest is computed so a JAR is never held fully in memory. Interrupted
+ * downloads are resumed with an HTTP Range request and a finished download is only moved into place (atomically)
+ * once its digest has been verified, so the JarResourceLoader never sees a partial JAR.
+ *
+ * Nothing calls the downloader yet: the Kraken API does not publish the URI and digest of each plugin JAR. Once it
+ * does, downloads should complete before KrakenPluginManager loads the plugin classes, and the JarResourceLoader
+ * should be left to pick the JARs up from the plugin directory.
+ */
+@Slf4j
+@Singleton
+public class PluginJarDownloader {
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_DELAY_MILLIS = 250;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String PART_SUFFIX = ".part";
+
+    private final KrakenClient krakenClient;
+    private final Path pluginDir;
+
+    /**
+     * Thrown when a completed download does not match its expected digest. Downloads failing with this exception
+     * are not retried.
+     */
+    public static class DigestMismatchException extends IOException {
+        public DigestMismatchException(String message) {
+            super(message);
+        }
+    }
+
+    @Inject
+    public PluginJarDownloader(KrakenClient krakenClient) {
+        this(krakenClient, JarResourceLoader.PLUGIN_DIR.toPath());
+    }
+
+    public PluginJarDownloader(KrakenClient krakenClient, Path pluginDir) {
+        this.krakenClient = krakenClient;
+        this.pluginDir = pluginDir;
+    }
+
+    /**
+     * Downloads a plugin JAR into the plugin directory, resuming from a previous partial download when one exists.
+     * @param uri URI of the JAR to download.
+     * @param fileName String the name of the JAR file within the plugin directory i.e. example-plugin.jar
+     * @param expectedSha256 String the hex encoded SHA-256 digest the JAR must match.
+     * @return Path to the downloaded JAR.
+     * @throws IOException When the download fails after all attempts or the digest does not match.
+     * @throws InterruptedException
+     * @throws IllegalArgumentException When the file name is not a JAR directly within the plugin directory.
+     */
+    public Path download(@NonNull URI uri, @NonNull String fileName, @NonNull String expectedSha256) throws IOException, InterruptedException {
+        Path target = resolveJar(fileName);
+        Path part = target.resolveSibling(target.getFileName() + PART_SUFFIX);
+        Files.createDirectories(target.getParent());
+
+        IOException lastError = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                String actualSha256 = downloadToPart(uri, part);
+                return verifyAndMove(part, target, expectedSha256, actualSha256);
+            } catch (DigestMismatchException e) {
+                throw e;
+            } catch (IOException e) {
+                lastError = e;
+                log.warn("Download attempt {} of {} for: {} failed. Error = {}", attempt, MAX_ATTEMPTS, uri, e.getMessage());
+                if (attempt < MAX_ATTEMPTS) {
+                    Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+                }
+            }
+        }
+        throw lastError;
+    }
+
+    /**
+     * Resolves a JAR file name against the plugin directory. The name comes from the API, so names which are absolute,
+     * climb out of the plugin directory with "..", point into a subdirectory or do not end in .jar are rejected.
+     */
+    private Path resolveJar(String fileName) {
+        Path dir = pluginDir.toAbsolutePath().normalize();
+        Path target = dir.resolve(fileName).normalize();
+        if (!dir.equals(target.getParent()) || !target.getFileName().toString().endsWith(".jar")) {
+            throw new IllegalArgumentException("Invalid plugin jar file name: " + fileName);
+        }
+        return target;
+    }
+
+    /**
+     * Streams the remote file into the partial file, appending to any bytes already downloaded when the server
+     * honours the Range request. When the server returns the whole file instead the partial file is truncated. The
+     * SHA-256 digest is updated as each buffer is written, a resumed download only re-reads the bytes already on disk.
+     * @return String the hex encoded SHA-256 digest of the complete partial file.
+     */
+    private String downloadToPart(URI uri, Path part) throws IOException, InterruptedException {
+        long offset = Files.exists(part) ? Files.size(part) : 0;
+        HttpResponse<InputStream> response = krakenClient.openDownload(uri, offset);
+
+        try (InputStream body = response.body();
+             FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int status = response.statusCode();
+            if (status == 416) {
+                // The partial file is not a prefix the server recognises, start over on the next attempt.
+                channel.truncate(0);
+                throw new IOException("Server rejected range request from offset " + offset + " for: " + uri);
+            } else if (status == 200) {
+                offset = 0;
+            } else if (status != 206 || !response.headers().firstValue("Content-Range").orElse("").startsWith("bytes " + offset + "-")) {
+                throw new IOException("Unexpected response status " + status + " while downloading: " + uri);
+            }
+
+            MessageDigest digest = sha256();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            channel.truncate(offset);
+
+            if (offset > 0) {
+                log.info("Resuming download of: {} from byte {}.", uri, offset);
+                channel.position(0);
+                while (channel.position() < offset && channel.read(buffer) != -1) {
+                    buffer.flip();
+                    digest.update(buffer);
+                    buffer.clear();
+                }
+            }
+            channel.position(offset);
+
+            ReadableByteChannel in = Channels.newChannel(body);
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+            channel.force(true);
+
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        }
+    }
+
+    /**
+     * Moves a completed partial file over the target JAR once its digest has been verified. A partial file which
+     * fails verification is deleted.
+     */
+    private Path verifyAndMove(Path part, Path target, String expectedSha256, String actualSha256) throws IOException {
+        if (!actualSha256.equalsIgnoreCase(expectedSha256)) {
+            Files.deleteIfExists(part);
+            throw new DigestMismatchException("Digest mismatch for: " + target.getFileName() + ". Expected = " + expectedSha256 + ", actual = " + actualSha256);
+        }
+
+        Files.move(part, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        log.info("Downloaded plugin jar: {}", target);
+        return target;
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("SHA-256 is not available.", e);
+        }
+    }
+}
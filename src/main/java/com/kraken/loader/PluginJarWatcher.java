@@ -0,0 +1,271 @@
+package com.kraken.loader;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the Kraken plugin directories for JARs which are added, changed or removed. File system events are
+ * debounced and then compared against a snapshot of each JAR's size and last modified time so only JARs whose
+ * contents actually changed are reported to the listener.
+ *
+ * A plugin directory which does not exist yet is picked up once it is created: the nearest existing parent is watched
+ * until the directory appears.
+ */
+@Slf4j
+public class PluginJarWatcher {
+    private static final long DEBOUNCE_MILLIS = 500;
+    private static final long STOP_TIMEOUT_MILLIS = 5000;
+
+    private final List<Path> roots;
+    private final Consumer<Changes> listener;
+    private final Map<String, FileState> snapshot = new HashMap<>();
+
+    private WatchService watchService;
+    private Thread thread;
+
+    @Value
+    public static class Changes {
+        List<String> added;
+        List<String> changed;
+        List<String> removed;
+
+        public boolean isEmpty() {
+            return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+        }
+    }
+
+    @Value
+    private static class FileState {
+        long size;
+        long lastModified;
+    }
+
+    public PluginJarWatcher(List<Path> roots, Consumer<Changes> listener) {
+        this.roots = roots.stream().map(root -> root.toAbsolutePath().normalize()).collect(Collectors.toList());
+        this.listener = listener;
+    }
+
+    /**
+     * Takes a snapshot of the current JARs and starts watching the plugin directories on a daemon thread. JARs
+     * present when the watcher starts are considered already loaded.
+     * @throws IOException When the watch service cannot be created.
+     */
+    public synchronized void start() throws IOException {
+        if (thread != null) {
+            return;
+        }
+
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            watch(root);
+        }
+        snapshot.putAll(takeSnapshot());
+
+        thread = new Thread(this::run, "kraken-jar-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("Watching {} for Kraken plugin jar changes.", roots);
+    }
+
+    /**
+     * Stops watching the plugin directories and waits for the watcher thread to exit, so the listener is never called
+     * once this returns.
+     */
+    public void stop() {
+        Thread watcherThread;
+        synchronized (this) {
+            if (thread == null) {
+                return;
+            }
+
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.error("Failed to close plugin jar watch service. Error = {}", e.getMessage());
+            }
+            watcherThread = thread;
+            watcherThread.interrupt();
+            thread = null;
+        }
+
+        // The watcher thread may be diffing the snapshot, which needs this object's lock.
+        if (watcherThread != Thread.currentThread()) {
+            try {
+                watcherThread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            snapshot.clear();
+        }
+    }
+
+    private void run() {
+        WatchService service = watchService;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.take();
+                boolean relevant = drain(key);
+
+                // Keep collecting events until the directory has been quiet for the debounce period so a jar
+                // which is still being written is only reported once.
+                WatchKey next;
+                while ((next = service.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    relevant |= drain(next);
+                }
+
+                if (relevant) {
+                    Changes changes = diff();
+                    if (!changes.isEmpty()) {
+                        log.info("Kraken plugin jars changed. Added = {}, changed = {}, removed = {}", changes.getAdded(), changes.getChanged(), changes.getRemoved());
+                        listener.accept(changes);
+                    }
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            log.debug("Plugin jar watcher stopped.");
+        } catch (RuntimeException e) {
+            log.error("Plugin jar watcher failed. Error = {}", e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private boolean drain(WatchKey key) {
+        boolean relevant = false;
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                relevant = true;
+                continue;
+            }
+
+            Path child = dir.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(child)) {
+                for (Path root : roots) {
+                    if (child.startsWith(root)) {
+                        registerAll(child);
+                        relevant = true;
+                    } else if (root.startsWith(child)) {
+                        // A parent of a plugin directory which did not exist yet was created.
+                        watch(root);
+                        relevant = true;
+                    }
+                }
+            } else if (child.toString().endsWith(".jar")) {
+                relevant = true;
+            }
+        }
+        key.reset();
+        return relevant;
+    }
+
+    private synchronized Changes diff() {
+        Map<String, FileState> current = takeSnapshot();
+        List<String> added = new ArrayList<>();
+        List<String> changed = new ArrayList<>();
+        List<String> removed = new ArrayList<>();
+
+        current.forEach((jarPath, state) -> {
+            FileState previous = snapshot.get(jarPath);
+            if (previous == null) {
+                added.add(jarPath);
+            } else if (!previous.equals(state)) {
+                changed.add(jarPath);
+            }
+        });
+
+        for (String jarPath : snapshot.keySet()) {
+            if (!current.containsKey(jarPath)) {
+                removed.add(jarPath);
+            }
+        }
+
+        snapshot.clear();
+        snapshot.putAll(current);
+        return new Changes(added, changed, removed);
+    }
+
+    private Map<String, FileState> takeSnapshot() {
+        Map<String, FileState> states = new HashMap<>();
+        for (Path root : roots) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.filter(Files::isRegularFile)
+                        .filter(path -> path.toString().endsWith(".jar"))
+                        .forEach(path -> {
+                            try {
+                                states.put(path.toAbsolutePath().normalize().toString(),
+                                        new FileState(Files.size(path), Files.getLastModifiedTime(path).toMillis()));
+                            } catch (IOException e) {
+                                // The jar was removed between listing and reading its attributes.
+                                log.debug("Failed to read attributes for jar: {}. Error = {}", path, e.getMessage());
+                            }
+                        });
+            } catch (IOException e) {
+                log.error("Error reading jar file paths under: {}. Error = {}", root, e.getMessage());
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Watches a plugin directory, or its nearest existing parent when the directory does not exist yet.
+     */
+    private void watch(Path root) {
+        if (Files.isDirectory(root)) {
+            registerAll(root);
+            return;
+        }
+
+        Path parent = root.getParent();
+        while (parent != null && !Files.isDirectory(parent)) {
+            parent = parent.getParent();
+        }
+        if (parent != null) {
+            register(parent);
+        }
+    }
+
+    private void registerAll(Path root) {
+        try (Stream<Path> dirs = Files.walk(root)) {
+            dirs.filter(Files::isDirectory).forEach(this::register);
+        } catch (IOException e) {
+            log.error("Failed to walk directory: {}. Error = {}", root, e.getMessage());
+        }
+    }
+
+    private void register(Path dir) {
+        try {
+            dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        } catch (IOException e) {
+            log.error("Failed to watch directory: {}. Error = {}", dir, e.getMessage());
+        }
+    }
+}
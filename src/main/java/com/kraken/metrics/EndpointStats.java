@@ -0,0 +1,63 @@
+package com.kraken.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and outcome statistics for a single API endpoint i.e. "POST /api/v1/cognito/auth". Outcomes are counted by
+ * status class, responses which never arrived (connection failures, timeouts) are counted as transport errors.
+ */
+public class EndpointStats {
+    private static final String[] STATUS_CLASSES = {"transportError", "1xx", "2xx", "3xx", "4xx", "5xx"};
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLongArray statusClasses = new AtomicLongArray(STATUS_CLASSES.length);
+
+    /**
+     * Records a completed exchange.
+     * @param nanos long the time from sending the request until the whole response body (or a failure) was received.
+     * Decoding the body is not included.
+     * @param statusCode int the response status code or -1 when no response was received.
+     */
+    public void record(long nanos, int statusCode) {
+        latency.record(nanos);
+        int statusClass = statusCode / 100;
+        statusClasses.incrementAndGet(statusClass >= 1 && statusClass <= 5 ? statusClass : 0);
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Returns the number of responses per status class, classes which never occurred are omitted.
+     * @return Map of status class to count.
+     */
+    public Map<String, Long> getStatusClasses() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int i = 0; i < STATUS_CLASSES.length; i++) {
+            long count = statusClasses.get(i);
+            if (count > 0) {
+                counts.put(STATUS_CLASSES[i], count);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Returns a summary suitable for serializing to JSON.
+     * @return Map of the request count, latency percentiles in milliseconds and status class counts.
+     */
+    public Map<String, Object> summary() {
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("count", latency.getCount());
+        summary.put("meanMillis", latency.getMeanMicros() / 1000.0);
+        summary.put("p50Millis", latency.getPercentileMicros(0.50) / 1000.0);
+        summary.put("p90Millis", latency.getPercentileMicros(0.90) / 1000.0);
+        summary.put("p99Millis", latency.getPercentileMicros(0.99) / 1000.0);
+        summary.put("maxMillis", latency.getMaxMicros() / 1000.0);
+        summary.put("status", getStatusClasses());
+        return summary;
+    }
+}
@@ -0,0 +1,245 @@
+package com.kraken.metrics;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.kraken.api.JsonCodec;
+import com.kraken.api.KrakenTransport;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static net.runelite.client.RuneLite.RUNELITE_DIR;
+
+/**
+ * A small registry of timings and counters for the Kraken loader. Phase timings accumulate so a phase which runs once
+ * per JAR (possibly in parallel) reports its total time. Snapshots are shown in the diagnostics section of the plugin
+ * panel and written to a rolling set of JSON files under RUNELITE_DIR/kraken/metrics. Kraken API calls are tracked per
+ * endpoint with a latency histogram and status class counters.
+ */
+@Slf4j
+@Singleton
+public class KrakenMetrics {
+    public static final File METRICS_DIR = new File(RUNELITE_DIR, "kraken/metrics");
+    private static final int MAX_SNAPSHOT_FILES = 10;
+
+    private final Map<String, AtomicLong> phaseNanos = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Map<String, EndpointStats> endpoints = new ConcurrentHashMap<>();
+    private ScheduledExecutorService dumpScheduler;
+    private final ObjectWriter writer;
+
+    @Inject
+    public KrakenMetrics(KrakenTransport transport) {
+        this(transport.getCodec());
+    }
+
+    /**
+     * @param codec JsonCodec the codec snapshots and dumps are written with, indented so they can be read by hand.
+     */
+    public KrakenMetrics(JsonCodec codec) {
+        this.writer = codec.writer(Map.class).withDefaultPrettyPrinter();
+    }
+
+    /**
+     * Times a phase. The elapsed time is added to the phase when the returned timer is closed.
+     */
+    public class Timer implements AutoCloseable {
+        private final String phase;
+        private final long start = System.nanoTime();
+
+        private Timer(String phase) {
+            this.phase = phase;
+        }
+
+        @Override
+        public void close() {
+            record(phase, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starts timing a phase. Use with try-with-resources.
+     * @param phase String the phase name i.e. "classScan"
+     * @return Timer
+     */
+    public Timer time(String phase) {
+        return new Timer(phase);
+    }
+
+    /**
+     * Adds elapsed time to a phase.
+     * @param phase String the phase name.
+     * @param nanos long elapsed time in nanoseconds.
+     */
+    public void record(String phase, long nanos) {
+        phaseNanos.computeIfAbsent(phase, k -> new AtomicLong()).addAndGet(nanos);
+    }
+
+    /**
+     * Adds to a counter.
+     * @param name String the counter name.
+     * @param delta long the amount to add.
+     */
+    public void increment(String name, long delta) {
+        counters.computeIfAbsent(name, k -> new AtomicLong()).addAndGet(delta);
+    }
+
+    /**
+     * Sets a counter to an absolute value.
+     * @param name String the counter name.
+     * @param value long the value.
+     */
+    public void set(String name, long value) {
+        counters.computeIfAbsent(name, k -> new AtomicLong()).set(value);
+    }
+
+    /**
+     * Returns the statistics for an API endpoint, creating them on first use. Callers on a hot path should hold on to
+     * the returned instance rather than looking it up per request.
+     * @param endpoint String the method and path template i.e. "GET /api/v1/cognito/get-user"
+     * @return EndpointStats
+     */
+    public EndpointStats endpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, k -> new EndpointStats());
+    }
+
+    /**
+     * Returns a summary of every endpoint sorted by name.
+     * @return Map of endpoint to its summary.
+     */
+    public Map<String, Map<String, Object>> getEndpoints() {
+        Map<String, Map<String, Object>> summaries = new TreeMap<>();
+        endpoints.forEach((name, stats) -> summaries.put(name, stats.summary()));
+        return summaries;
+    }
+
+    /**
+     * Returns the total time recorded for each phase in milliseconds, in the order phases were first recorded.
+     * @return Map of phase name to milliseconds.
+     */
+    public Map<String, Long> getPhaseMillis() {
+        Map<String, Long> millis = new LinkedHashMap<>();
+        synchronized (phaseNanos) {
+            phaseNanos.forEach((phase, nanos) -> millis.put(phase, TimeUnit.NANOSECONDS.toMillis(nanos.get())));
+        }
+        return millis;
+    }
+
+    /**
+     * Returns the current value of every counter sorted by name.
+     * @return Map of counter name to value.
+     */
+    public Map<String, Long> getCounters() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, value) -> values.put(name, value.get()));
+        return values;
+    }
+
+    /**
+     * Returns a point in time copy of every phase and counter.
+     * @return Map suitable for serializing to JSON.
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("timestamp", System.currentTimeMillis());
+        snapshot.put("phasesMillis", getPhaseMillis());
+        snapshot.put("counters", getCounters());
+        snapshot.put("endpoints", getEndpoints());
+        return snapshot;
+    }
+
+    /**
+     * Writes a snapshot to a new JSON file in the metrics directory and deletes the oldest snapshots so only the most
+     * recent files are kept.
+     */
+    public void writeSnapshot() {
+        Path dir = METRICS_DIR.toPath();
+        try {
+            Files.createDirectories(dir);
+            Path file = dir.resolve("loader-" + System.currentTimeMillis() + ".json");
+            Path tmp = dir.resolve(file.getFileName() + ".tmp");
+            writer.writeValue(tmp.toFile(), snapshot());
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+
+            try (Stream<Path> files = Files.list(dir)) {
+                Path[] snapshots = files
+                        .filter(p -> p.getFileName().toString().startsWith("loader-") && p.getFileName().toString().endsWith(".json"))
+                        .sorted()
+                        .toArray(Path[]::new);
+                for (int i = 0; i < snapshots.length - MAX_SNAPSHOT_FILES; i++) {
+                    Files.deleteIfExists(snapshots[i]);
+                }
+            }
+            log.debug("Wrote loader metrics to: {}", file);
+        } catch (IOException e) {
+            log.error("Failed to write loader metrics to: {}. Error = {}", dir, e.getMessage());
+        }
+    }
+
+    /**
+     * Periodically overwrites RUNELITE_DIR/kraken/metrics/api-latency.json with the endpoint statistics so API latency
+     * can be inspected without a debugger or the plugin panel.
+     * @param period long the time between dumps.
+     * @param unit TimeUnit the unit of the period.
+     */
+    public synchronized void startPeriodicDump(long period, TimeUnit unit) {
+        if (dumpScheduler != null) {
+            return;
+        }
+
+        dumpScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "kraken-metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumpScheduler.scheduleWithFixedDelay(this::writeEndpointDump, period, period, unit);
+    }
+
+    /**
+     * Stops the periodic dump and writes a final one.
+     */
+    public synchronized void stopPeriodicDump() {
+        if (dumpScheduler == null) {
+            return;
+        }
+        dumpScheduler.shutdownNow();
+        dumpScheduler = null;
+        writeEndpointDump();
+    }
+
+    private void writeEndpointDump() {
+        if (endpoints.isEmpty()) {
+            return;
+        }
+
+        Path dir = METRICS_DIR.toPath();
+        Path file = dir.resolve("api-latency.json");
+        try {
+            Files.createDirectories(dir);
+            Map<String, Object> dump = new LinkedHashMap<>();
+            dump.put("timestamp", System.currentTimeMillis());
+            dump.put("endpoints", getEndpoints());
+
+            Path tmp = dir.resolve(file.getFileName() + ".tmp");
+            writer.writeValue(tmp.toFile(), dump);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("Failed to write API latency metrics to: {}. Error = {}", file, e.getMessage());
+        }
+    }
+}
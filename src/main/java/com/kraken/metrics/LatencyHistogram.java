@@ -0,0 +1,100 @@
+package com.kraken.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, HDR style latency histogram. Latencies are recorded in microseconds into log-linear buckets: every power
+ * of two range is split into SUB_BUCKETS linear sub buckets, so any recorded value is reported within 12.5% of its true
+ * value from 1us up to several hours. Recording is lock and allocation free, it only increments atomic counters, so it
+ * can be called on every request.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * Records a latency.
+     * @param nanos long the latency in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(bucketIndex(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxMicros() {
+        return maxMicros.get();
+    }
+
+    public long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : sumMicros.get() / n;
+    }
+
+    /**
+     * Returns the latency at a percentile, reported as the upper bound of the bucket the percentile falls in.
+     * @param percentile double between 0 and 1 i.e. 0.99
+     * @return long the latency in microseconds or 0 if nothing was recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long target = Math.max(1, (long) Math.ceil(percentile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(bucketUpperBound(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        if (exponent == MAX_EXPONENT && micros >= (1L << (MAX_EXPONENT + 1))) {
+            return BUCKETS - 1;
+        }
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+}
@@ -5,6 +5,7 @@ import com.google.inject.Provider;
 import com.google.inject.Singleton;
 import com.kraken.KrakenLoaderPlugin;
 import com.kraken.KrakenPluginManager;
+import com.kraken.metrics.KrakenMetrics;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.runelite.client.config.*;
@@ -16,6 +17,7 @@ import net.runelite.client.plugins.PluginManager;
 import net.runelite.client.plugins.config.PluginSearch;
 import net.runelite.client.ui.ColorScheme;
 import net.runelite.client.ui.DynamicGridLayout;
+import net.runelite.client.ui.FontManager;
 import net.runelite.client.ui.MultiplexingPluginPanel;
 import net.runelite.client.ui.PluginPanel;
 import net.runelite.client.ui.components.IconTextField;
@@ -28,6 +30,8 @@ import javax.swing.border.EmptyBorder;
 import javax.swing.event.DocumentEvent;
 import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -61,6 +65,8 @@ public class KrakenPluginListPanel extends PluginPanel {
     private final Provider<ConfigPanel> configPanelProvider;
 	private final PluginManager pluginManager;
 	private final KrakenPluginManager krakenPluginManager;
+	private final KrakenMetrics metrics;
+	private final JTextArea diagnosticsText = new JTextArea();
 
     @Getter
 	private final MultiplexingPluginPanel muxer;
@@ -76,13 +82,15 @@ public class KrakenPluginListPanel extends PluginPanel {
 								 PluginManager pluginManager,
 								 KrakenPluginManager krakenPluginManager,
 								 ConfigManager configManager,
-								 Provider<ConfigPanel> configPanelProvider) {
+								 Provider<ConfigPanel> configPanelProvider,
+								 KrakenMetrics metrics) {
         super(false);
 
         this.configManager = configManager;
         this.pluginManager = pluginManager;
         this.configPanelProvider = configPanelProvider;
 		this.krakenPluginManager = krakenPluginManager;
+		this.metrics = metrics;
 
         setLayout(new BorderLayout());
         setBackground(ColorScheme.DARK_GRAY_COLOR);
@@ -140,6 +148,7 @@ public class KrakenPluginListPanel extends PluginPanel {
 
 		JPanel bottomPanel = new JPanel();
 		bottomPanel.setLayout(new BorderLayout());
+		bottomPanel.add(buildDiagnosticsPanel(), BorderLayout.NORTH);
 		bottomPanel.add(discordPanel, BorderLayout.CENTER);
 		bottomPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
 		add(bottomPanel, BorderLayout.SOUTH);
@@ -159,6 +168,57 @@ public class KrakenPluginListPanel extends PluginPanel {
 
 
 
+	/**
+	 * Builds a collapsible section which shows loader phase timings and counters from the KrakenMetrics registry.
+	 * @return JPanel the diagnostics section, collapsed by default.
+	 */
+	private JPanel buildDiagnosticsPanel() {
+		JPanel diagnosticsPanel = new JPanel(new BorderLayout());
+		diagnosticsPanel.setBorder(new EmptyBorder(0, 10, 0, 10));
+
+		JLabel header = new JLabel("Diagnostics");
+		header.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		header.setFont(FontManager.getRunescapeSmallFont());
+		header.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+
+		diagnosticsText.setEditable(false);
+		diagnosticsText.setLineWrap(true);
+		diagnosticsText.setFont(FontManager.getRunescapeSmallFont());
+		diagnosticsText.setBackground(ColorScheme.DARKER_GRAY_COLOR);
+		diagnosticsText.setForeground(ColorScheme.LIGHT_GRAY_COLOR);
+		diagnosticsText.setBorder(new EmptyBorder(5, 5, 5, 5));
+		diagnosticsText.setVisible(false);
+
+		header.addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				refreshDiagnostics();
+				diagnosticsText.setVisible(!diagnosticsText.isVisible());
+				revalidate();
+			}
+		});
+
+		diagnosticsPanel.add(header, BorderLayout.NORTH);
+		diagnosticsPanel.add(diagnosticsText, BorderLayout.CENTER);
+		return diagnosticsPanel;
+	}
+
+	/**
+	 * Refreshes the text of the diagnostics section with the latest metrics.
+	 */
+	void refreshDiagnostics() {
+		StringBuilder text = new StringBuilder();
+		metrics.getPhaseMillis().forEach((phase, millis) -> text.append(phase).append(": ").append(millis).append("ms\n"));
+		metrics.getCounters().forEach((name, value) -> text.append(name).append(": ").append(value).append("\n"));
+		metrics.getEndpoints().forEach((endpoint, summary) -> text.append(endpoint)
+				.append(": n=").append(summary.get("count"))
+				.append(" p50=").append(summary.get("p50Millis")).append("ms")
+				.append(" p99=").append(summary.get("p99Millis")).append("ms")
+				.append(" ").append(summary.get("status"))
+				.append("\n"));
+		diagnosticsText.setText(text.length() == 0 ? "No metrics recorded yet." : text.toString().trim());
+	}
+
 	/**
 	 * Rebuilds the Kraken plugin list when changes have been made to a plugin via the KrakenPluginManager.
 	 */
@@ -207,6 +267,7 @@ public class KrakenPluginListPanel extends PluginPanel {
 			.collect(Collectors.toList());
 
 		mainPanel.removeAll();
+		refreshDiagnostics();
 		refresh();
 	}
 
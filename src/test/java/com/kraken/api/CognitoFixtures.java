@@ -0,0 +1,47 @@
+package com.kraken.api;
+
+/**
+ * Builds the Cognito users and credentials shared by the credential tests and benchmarks.
+ */
+public final class CognitoFixtures {
+    private CognitoFixtures() {
+    }
+
+    /**
+     * @param accessToken String the access token.
+     * @return CognitoCredentials issued now and valid for an hour.
+     */
+    public static CognitoCredentials credentials(String accessToken) {
+        return credentials(accessToken, "refresh");
+    }
+
+    /**
+     * @param accessToken String the access token.
+     * @param refreshToken String the refresh token.
+     * @return CognitoCredentials issued now and valid for an hour.
+     */
+    public static CognitoCredentials credentials(String accessToken, String refreshToken) {
+        CognitoCredentials credentials = new CognitoCredentials();
+        credentials.setAccessToken(accessToken);
+        credentials.setRefreshToken(refreshToken);
+        credentials.setExpirationTimeSeconds(3600);
+        credentials.setIssuedAtSeconds(System.currentTimeMillis() / 1000);
+        return credentials;
+    }
+
+    /**
+     * @param discordId String the discord id, also used to derive the username, email and refresh token.
+     * @param accessToken String the access token.
+     * @return CognitoUser an enabled account.
+     */
+    public static CognitoUser user(String discordId, String accessToken) {
+        CognitoUser user = new CognitoUser();
+        user.setCognitoId("cognito-" + discordId);
+        user.setDiscordId(discordId);
+        user.setDiscordUsername("user-" + discordId);
+        user.setEmail("user-" + discordId + "@example.com");
+        user.setAccountEnabled(true);
+        user.setCredentials(credentials(accessToken, "refresh-" + discordId));
+        return user;
+    }
+}
@@ -0,0 +1,108 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.kraken.api.CognitoFixtures.user;
+
+/**
+ * Measures the cost of loading encrypted credentials compared to reading a plaintext creds.json with
+ * {@code mapper.readValue}, the way credentials were loaded before they were encrypted.
+ *
+ * - plain: a fresh ObjectMapper reads a plaintext creds.json.
+ * - cold: a new KrakenCredentialManager loads credentials sealed with a secret this process has not seen yet, so the
+ *   vault key has to be derived first. This is the cost paid once per process at startup.
+ * - warm: a new KrakenCredentialManager loads credentials from disk with the vault key already derived.
+ *
+ * Usage: CredentialVaultBenchmark [coldIterations=10] [warmIterations=1000]
+ */
+public class CredentialVaultBenchmark {
+    private static final int WARMUP_ITERATIONS = 200;
+
+    public static void main(String[] args) throws Exception {
+        int coldIterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int warmIterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Path root = Files.createTempDirectory("kraken-vault-benchmark");
+        CognitoUser user = user("1", "access-" + System.nanoTime());
+
+        Path plainFile = root.resolve("creds.json");
+        new ObjectMapper().writeValue(plainFile.toFile(), user);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            new ObjectMapper().readValue(plainFile.toFile(), CognitoUser.class);
+        }
+        long[] plain = new long[warmIterations];
+        for (int i = 0; i < warmIterations; i++) {
+            long start = System.nanoTime();
+            new ObjectMapper().readValue(plainFile.toFile(), CognitoUser.class);
+            plain[i] = System.nanoTime() - start;
+        }
+
+        long[] cold = new long[coldIterations];
+        for (int i = 0; i < coldIterations; i++) {
+            Path dir = seal(root.resolve("cold-" + i), user);
+            // Key derivation is cached per secret file, copying the files to a new directory gives a new secret path.
+            Path copy = copy(dir, root.resolve("cold-copy-" + i));
+            long start = System.nanoTime();
+            load(copy);
+            cold[i] = System.nanoTime() - start;
+        }
+
+        Path warmDir = seal(root.resolve("warm"), user);
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            load(warmDir);
+        }
+        long[] warm = new long[warmIterations];
+        for (int i = 0; i < warmIterations; i++) {
+            long start = System.nanoTime();
+            load(warmDir);
+            warm[i] = System.nanoTime() - start;
+        }
+
+        report("plain", plain);
+        report("cold", cold);
+        report("warm", warm);
+    }
+
+    private static Path seal(Path dir, CognitoUser user) {
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), dir);
+        manager.persistUserCredentials(user);
+        manager.flush();
+        return dir;
+    }
+
+    private static Path copy(Path from, Path to) throws IOException {
+        Files.createDirectories(to.resolve("accounts"));
+        Files.copy(from.resolve("vault.key"), to.resolve("vault.key"));
+        try (Stream<Path> files = Files.list(from.resolve("accounts"))) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, to.resolve("accounts").resolve(file.getFileName()));
+            }
+        }
+        return to;
+    }
+
+    private static void load(Path dir) {
+        if (new KrakenCredentialManager(new JsonCodec(), dir).loadUserCredentials() == null) {
+            throw new IllegalStateException("Failed to load credentials from: " + dir);
+        }
+    }
+
+    private static void report(String name, long[] latencies) {
+        Arrays.sort(latencies);
+        System.out.printf("%-5s n=%d p50=%.3fms p99=%.3fms max=%.3fms%n", name, latencies.length,
+                millis(latencies[latencies.length / 2]),
+                millis(latencies[Math.max(0, (int) Math.ceil(0.99 * latencies.length) - 1)]),
+                millis(latencies[latencies.length - 1]));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
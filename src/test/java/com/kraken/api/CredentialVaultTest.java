@@ -0,0 +1,50 @@
+package com.kraken.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialVaultTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void sealedPayloadsOpenWithTheSameSecret() throws Exception {
+        Path secret = folder.getRoot().toPath().resolve("vault.key");
+        byte[] plaintext = "{\"refresh_token\":\"secret\"}".getBytes(StandardCharsets.UTF_8);
+
+        byte[] sealed = new CredentialVault(secret).seal(plaintext, "1.json");
+        assertTrue(CredentialVault.isSealed(sealed));
+        assertFalse(new String(sealed, StandardCharsets.ISO_8859_1).contains("secret"));
+
+        // A second vault reads the secret created by the first.
+        assertArrayEquals(plaintext, new CredentialVault(secret).open(sealed, "1.json"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsPayloadsSealedForAnotherFile() throws Exception {
+        CredentialVault vault = new CredentialVault(folder.getRoot().toPath().resolve("vault.key"));
+        byte[] sealed = vault.seal("{}".getBytes(StandardCharsets.UTF_8), "1.json");
+        vault.open(sealed, "2.json");
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsPayloadsSealedWithAnotherSecret() throws Exception {
+        byte[] sealed = new CredentialVault(folder.newFolder().toPath().resolve("vault.key"))
+                .seal("{}".getBytes(StandardCharsets.UTF_8), "1.json");
+        new CredentialVault(folder.newFolder().toPath().resolve("vault.key")).open(sealed, "1.json");
+    }
+
+    @Test
+    public void plaintextIsNotSealed() {
+        assertFalse(CredentialVault.isSealed("{\"discordId\":\"1\"}".getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,36 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KrakenApiExceptionTest {
+    private static final String PATH = "/api/v1/cognito/auth";
+
+    @Test
+    public void slowAndUnreachableApisAreTransient() {
+        assertTrue(KrakenApiException.isTransient(new KrakenApiException("POST", PATH, "Deadline of 200ms exceeded.", new TimeoutException())));
+        assertTrue(KrakenApiException.isTransient(new CompletionException(new TimeoutException())));
+        assertTrue(KrakenApiException.isTransient(new CompletionException(new KrakenApiException("POST", PATH, "Connection refused", new IOException()))));
+        assertTrue(KrakenApiException.isTransient(new KrakenApiException("POST", PATH, 503, null)));
+    }
+
+    @Test
+    public void rejectedCredentialsAreNotTransient() {
+        assertFalse(KrakenApiException.isTransient(new CompletionException(new KrakenApiException("POST", PATH, 401, null))));
+        assertFalse(KrakenApiException.isTransient(new KrakenApiException("POST", PATH, 403, null)));
+        assertFalse(KrakenApiException.isTransient(new IllegalStateException()));
+    }
+
+    @Test
+    public void deadlineFailuresAreRecognised() {
+        assertTrue(new KrakenApiException("GET", PATH, "Deadline of 200ms exceeded.", new TimeoutException()).isDeadlineExceeded());
+        assertFalse(new KrakenApiException("GET", PATH, "Bad body", new JsonParseException(null, "bad")).isDeadlineExceeded());
+    }
+}
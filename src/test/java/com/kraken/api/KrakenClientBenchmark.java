@@ -0,0 +1,88 @@
+package com.kraken.api;
+
+import com.kraken.auth.CognitoAuth;
+import com.kraken.metrics.KrakenMetrics;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures KrakenClient throughput and latency against the in-process stub server. Every request authenticates a
+ * different user so calls are never coalesced or cached.
+ *
+ * Usage: KrakenClientBenchmark [concurrency=32] [requests=5000] [latencyMillis=20] [errorRate=0.0]
+ */
+public class KrakenClientBenchmark {
+    private static final int WARMUP_REQUESTS = 500;
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 5000;
+        long latencyMillis = args.length > 2 ? Long.parseLong(args[2]) : 20;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.0;
+
+        try (KrakenStubServer stub = new KrakenStubServer(Math.max(8, concurrency))) {
+            KrakenClient client = new KrakenClient(new KrakenTransport(), new KrakenMetrics(new JsonCodec()), stub.getBaseUrl());
+
+            stub.setLatencyMillis(0);
+            run(client, concurrency, WARMUP_REQUESTS, "warmup-");
+
+            stub.setLatencyMillis(latencyMillis);
+            stub.setErrorRate(errorRate);
+            long start = System.nanoTime();
+            Result result = run(client, concurrency, requests, "user-");
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long[] latencies = result.latencies;
+            Arrays.sort(latencies);
+            System.out.printf("concurrency=%d requests=%d stubLatency=%dms errorRate=%.2f%n", concurrency, requests, latencyMillis, errorRate);
+            System.out.printf("throughput=%.1f req/s failures=%d%n", requests / seconds, result.failures.get());
+            System.out.printf("p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms%n",
+                    millis(percentile(latencies, 0.50)),
+                    millis(percentile(latencies, 0.90)),
+                    millis(percentile(latencies, 0.99)),
+                    millis(latencies[latencies.length - 1]));
+        }
+    }
+
+    private static class Result {
+        private final long[] latencies;
+        private final AtomicInteger failures = new AtomicInteger();
+
+        private Result(int requests) {
+            latencies = new long[requests];
+        }
+    }
+
+    private static Result run(KrakenClient client, int concurrency, int requests, String idPrefix) throws InterruptedException {
+        Result result = new Result(requests);
+        Semaphore permits = new Semaphore(concurrency);
+        for (int i = 0; i < requests; i++) {
+            permits.acquire();
+            int index = i;
+            long start = System.nanoTime();
+            CompletableFuture<CognitoUser> call = client.authenticateAsync(new CognitoAuth(idPrefix + i, "refresh-" + i));
+            call.whenComplete((user, error) -> {
+                result.latencies[index] = System.nanoTime() - start;
+                if (error != null) {
+                    result.failures.incrementAndGet();
+                }
+                permits.release();
+            });
+        }
+        permits.acquire(concurrency);
+        return result;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double millis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,136 @@
+package com.kraken.api;
+
+import com.kraken.auth.CognitoAuth;
+import com.kraken.auth.DiscordTokenResponse;
+import com.kraken.metrics.KrakenMetrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class KrakenClientTest {
+    private KrakenStubServer stub;
+    private KrakenMetrics metrics;
+    private KrakenClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        stub = new KrakenStubServer();
+        metrics = new KrakenMetrics(new JsonCodec());
+        client = new KrakenClient(new KrakenTransport(), metrics, stub.getBaseUrl());
+    }
+
+    @After
+    public void tearDown() {
+        stub.close();
+    }
+
+    @Test
+    public void authenticatesAgainstConfiguredBaseUrl() throws Exception {
+        CognitoUser user = client.authenticateAsync(new CognitoAuth("1", "refresh-1")).get();
+
+        assertEquals("1", user.getDiscordId());
+        assertNotNull(user.getCredentials().getAccessToken());
+        assertEquals(3600, user.getCredentials().getExpirationTimeSeconds());
+        assertEquals(1, stub.getRequestCount("/api/v1/cognito/auth"));
+    }
+
+    @Test
+    public void exchangesDiscordCode() throws Exception {
+        DiscordTokenResponse token = client.postDiscordOAuthCodeAsync(new DiscordOAuthRequest("abc")).get();
+        assertEquals("discord-access-abc", token.getAccessToken());
+    }
+
+    @Test
+    public void retriesIdempotentCallsOnServerErrors() throws Exception {
+        stub.failNext(2);
+        CognitoUser user = client.getUserAsync("2").get();
+
+        assertEquals("2", user.getDiscordId());
+        assertEquals(3, stub.getRequestCount("/api/v1/cognito/get-user"));
+    }
+
+    @Test
+    public void doesNotRetryNonIdempotentCalls() throws Exception {
+        stub.failNext(1);
+        try {
+            client.refreshSessionAsync(new CognitoAuth("3", "refresh-3")).get();
+            fail("Expected the refresh to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof KrakenApiException);
+            assertEquals(503, ((KrakenApiException) e.getCause()).getStatusCode());
+        }
+        assertEquals(1, stub.getRequestCount("/api/v1/cognito/refresh-session"));
+    }
+
+    @Test
+    public void revalidatesCachedGetResponses() throws Exception {
+        CognitoUser first = client.getUserAsync("4").get();
+        CognitoUser second = client.getUserAsync("4").get();
+
+        assertEquals(first, second);
+        assertEquals(2, stub.getRequestCount("/api/v1/cognito/get-user"));
+        assertEquals(Long.valueOf(1), metrics.getCounters().get("apiCacheRevalidated"));
+    }
+
+    @Test
+    public void statusUpdateDropsTheCachedUser() throws Exception {
+        client.getUserAsync("8").get();
+        client.updateUserStatusAsync("8", true).get();
+        client.getUserAsync("8").get();
+
+        // The second lookup is sent without validators so it cannot be answered with a 304.
+        assertEquals(Long.valueOf(2), metrics.getCounters().get("apiCacheMisses"));
+        assertNull(metrics.getCounters().get("apiCacheRevalidated"));
+    }
+
+    @Test
+    public void unexpectedNotModifiedIsNotCached() throws Exception {
+        stub.setNotModified(true);
+        try {
+            client.getUserAsync("6").get();
+            fail("Expected the lookup to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof KrakenApiException);
+        }
+
+        stub.setNotModified(false);
+        assertEquals("6", client.getUserAsync("6").get().getDiscordId());
+    }
+
+    @Test
+    public void coalescesConcurrentIdenticalCalls() throws Exception {
+        stub.setLatencyMillis(200);
+        CompletableFuture<CognitoUser> first = client.getUserAsync("5");
+        CompletableFuture<CognitoUser> second = client.getUserAsync("5");
+
+        assertNotSame(first.get(), second.get());
+        assertEquals(first.get(), second.get());
+        assertEquals(1, stub.getRequestCount("/api/v1/cognito/get-user"));
+    }
+
+    @Test
+    public void missedDeadlineFailsWithKrakenApiException() throws Exception {
+        stub.setLatencyMillis(2000);
+        try {
+            client.getUserAsync("7", Duration.ofMillis(200)).get();
+            fail("Expected the lookup to miss its deadline");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof KrakenApiException);
+            KrakenApiException failure = (KrakenApiException) e.getCause();
+            assertEquals(-1, failure.getStatusCode());
+            assertTrue(failure.isDeadlineExceeded());
+            assertTrue(failure.isServerOrTransportError());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.kraken.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static com.kraken.api.CognitoFixtures.user;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KrakenCredentialManagerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void persistsAtomicallyOnFlush() throws Exception {
+        Path krakenDir = folder.getRoot().toPath().resolve("kraken");
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+
+        manager.persistUserCredentials(user("1", "first"));
+        manager.persistUserCredentials(user("1", "second"));
+        assertEquals("second", manager.loadUserCredentials().getCredentials().getAccessToken());
+
+        manager.flush();
+        Path accountFile = krakenDir.resolve("accounts").resolve("1.json");
+        assertTrue(Files.isRegularFile(accountFile));
+        assertTrue(Files.isRegularFile(krakenDir.resolve("accounts").resolve("index.json")));
+        assertFalse(Files.exists(accountFile.resolveSibling("1.json.tmp")));
+        assertTrue(CredentialVault.isSealed(Files.readAllBytes(accountFile)));
+
+        KrakenCredentialManager reloaded = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertEquals("second", reloaded.loadUserCredentials().getCredentials().getAccessToken());
+    }
+
+    @Test
+    public void returnsCopiesOfTheInMemoryUser() {
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), folder.getRoot().toPath());
+        assertNull(manager.loadUserCredentials());
+
+        manager.persistUserCredentials(user("2", "token"));
+        CognitoUser loaded = manager.loadUserCredentials();
+        loaded.setAccountEnabled(false);
+
+        assertNotSame(loaded, manager.loadUserCredentials());
+        assertTrue(manager.loadUserCredentials().isAccountEnabled());
+    }
+
+    @Test
+    public void switchesBetweenStoredAccounts() {
+        Path krakenDir = folder.getRoot().toPath();
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        manager.persistUserCredentials(user("1", "token-1"));
+        manager.persistUserCredentials(user("2", "token-2"));
+        assertEquals("2", manager.loadUserCredentials().getDiscordId());
+
+        assertEquals("token-1", manager.setActiveAccount("1").getCredentials().getAccessToken());
+        assertEquals("1", manager.loadUserCredentials().getDiscordId());
+        assertNull(manager.setActiveAccount("3"));
+        assertEquals("1", manager.loadUserCredentials().getDiscordId());
+        assertEquals(2, manager.getAccounts().size());
+        manager.flush();
+
+        KrakenCredentialManager reloaded = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertEquals("token-1", reloaded.loadUserCredentials().getCredentials().getAccessToken());
+        assertEquals("token-2", reloaded.loadAccount("2").getCredentials().getAccessToken());
+    }
+
+    @Test
+    public void migratesLegacyCredentials() throws Exception {
+        Path krakenDir = folder.getRoot().toPath();
+        Path legacyFile = krakenDir.resolve("creds.json");
+        Files.write(legacyFile, new JsonCodec().write(user("7", "legacy")));
+
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertEquals("legacy", manager.loadUserCredentials().getCredentials().getAccessToken());
+        manager.flush();
+
+        assertFalse(Files.exists(legacyFile));
+        assertTrue(Files.isRegularFile(krakenDir.resolve("accounts").resolve("7.json")));
+        KrakenCredentialManager reloaded = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertEquals("legacy", reloaded.loadAccount("7").getCredentials().getAccessToken());
+    }
+
+    @Test
+    public void retriesWritesAfterAFailure() throws Exception {
+        Path krakenDir = folder.getRoot().toPath();
+        Path accountsDir = krakenDir.resolve("accounts");
+        // A directory where the temporary file goes makes the account write fail.
+        Path blocker = Files.createDirectories(accountsDir.resolve("1.json.tmp"));
+
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        manager.persistUserCredentials(user("1", "token"));
+        manager.flush();
+        assertFalse(Files.exists(accountsDir.resolve("1.json")));
+        assertFalse(Files.exists(accountsDir.resolve("index.json")));
+
+        Files.delete(blocker);
+        manager.flush();
+        KrakenCredentialManager reloaded = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertEquals("token", reloaded.loadUserCredentials().getCredentials().getAccessToken());
+    }
+
+    @Test
+    public void rebuildsAnUnreadableIndexFromTheAccountFiles() throws Exception {
+        Path krakenDir = folder.getRoot().toPath();
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        manager.persistUserCredentials(user("1", "token-1"));
+        manager.persistUserCredentials(user("2", "token-2"));
+        manager.flush();
+
+        Files.write(krakenDir.resolve("accounts").resolve("index.json"), new byte[]{'{', 'x'});
+        KrakenCredentialManager reloaded = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertEquals(2, reloaded.getAccounts().size());
+        assertEquals("token-1", reloaded.loadAccount("1").getCredentials().getAccessToken());
+        assertEquals("token-2", reloaded.loadAccount("2").getCredentials().getAccessToken());
+    }
+
+    @Test
+    public void encryptsPlaintextAccountFilesFoundByARebuild() throws Exception {
+        Path accountFile = folder.getRoot().toPath().resolve("accounts").resolve("3.json");
+        Files.createDirectories(accountFile.getParent());
+        Files.write(accountFile, new JsonCodec().write(user("3", "token-3")));
+
+        KrakenCredentialManager manager = new KrakenCredentialManager(new JsonCodec(), folder.getRoot().toPath());
+        assertEquals(1, manager.getAccounts().size());
+        manager.flush();
+
+        assertTrue(CredentialVault.isSealed(Files.readAllBytes(accountFile)));
+        KrakenCredentialManager reloaded = new KrakenCredentialManager(new JsonCodec(), folder.getRoot().toPath());
+        assertEquals("token-3", reloaded.loadUserCredentials().getCredentials().getAccessToken());
+    }
+
+    @Test
+    public void keepsAccountsStoredByAnotherClient() {
+        Path krakenDir = folder.getRoot().toPath();
+        KrakenCredentialManager first = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        KrakenCredentialManager second = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertNull(first.loadUserCredentials());
+        assertNull(second.loadUserCredentials());
+
+        first.persistUserCredentials(user("1", "token-1"));
+        first.flush();
+        second.persistUserCredentials(user("2", "token-2"));
+        second.flush();
+
+        KrakenCredentialManager reloaded = new KrakenCredentialManager(new JsonCodec(), krakenDir);
+        assertEquals(2, reloaded.getAccounts().size());
+        assertEquals("2", reloaded.loadUserCredentials().getDiscordId());
+        assertEquals("token-1", reloaded.loadAccount("1").getCredentials().getAccessToken());
+        assertEquals(2, second.getAccounts().size());
+    }
+}
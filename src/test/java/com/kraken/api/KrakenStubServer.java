@@ -0,0 +1,246 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand in for the Kraken API. It implements the /api/v1/cognito/* and /api/v1/discord/oauth contracts
+ * closely enough for KrakenClient to be exercised offline, with a configurable latency per request and configurable
+ * error injection. get-user responses carry an ETag and honour If-None-Match so conditional requests can be tested.
+ */
+public class KrakenStubServer implements AutoCloseable {
+    private static final String COGNITO = "/api/v1/cognito";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final Map<String, Boolean> accountStatus = new ConcurrentHashMap<>();
+
+    private volatile long latencyMillis;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile boolean notModified;
+    private final AtomicInteger failNext = new AtomicInteger();
+
+    public KrakenStubServer() throws IOException {
+        this(32);
+    }
+
+    /**
+     * @param threads int the number of threads serving requests.
+     */
+    public KrakenStubServer(int threads) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newFixedThreadPool(threads);
+        server.setExecutor(executor);
+        server.createContext(COGNITO + "/create-user", handler(this::createUser));
+        server.createContext(COGNITO + "/auth", handler(this::authenticate));
+        server.createContext(COGNITO + "/refresh-session", handler(this::refreshSession));
+        server.createContext(COGNITO + "/get-user", handler(this::getUser));
+        server.createContext(COGNITO + "/user-status", handler(this::updateUserStatus));
+        server.createContext("/api/v1/discord/oauth", handler(this::discordOAuth));
+        server.start();
+    }
+
+    /**
+     * Returns the base URL to pass to KrakenClient.
+     * @return String
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Delays every response by the given amount.
+     * @param latencyMillis long the delay in milliseconds.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Fails a random fraction of requests with the error status.
+     * @param errorRate double between 0 and 1.
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public void setErrorStatus(int errorStatus) {
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Answers every get-user request with a 304, whether or not the request was conditional.
+     * @param notModified boolean
+     */
+    public void setNotModified(boolean notModified) {
+        this.notModified = notModified;
+    }
+
+    /**
+     * Fails the next n requests with the error status regardless of the error rate.
+     * @param n int the number of requests to fail.
+     */
+    public void failNext(int n) {
+        failNext.set(n);
+    }
+
+    /**
+     * Returns the number of requests received for a path i.e. /api/v1/cognito/auth
+     * @param path String the path without a query string.
+     * @return int
+     */
+    public int getRequestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Endpoint {
+        /**
+         * @return the response body to encode as JSON or null when the endpoint already responded.
+         */
+        Object handle(HttpExchange exchange, Map<String, Object> body) throws IOException;
+    }
+
+    private HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            try {
+                requestCounts.computeIfAbsent(exchange.getRequestURI().getPath(), k -> new AtomicInteger()).incrementAndGet();
+                Map<String, Object> body = readBody(exchange);
+
+                if (latencyMillis > 0) {
+                    Thread.sleep(latencyMillis);
+                }
+
+                if (failNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0 || ThreadLocalRandom.current().nextDouble() < errorRate) {
+                    respond(exchange, errorStatus, Collections.singletonMap("message", "Injected error"));
+                    return;
+                }
+
+                Object response = endpoint.handle(exchange, body);
+                if (response != null) {
+                    respond(exchange, 200, response);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    private Object createUser(HttpExchange exchange, Map<String, Object> body) {
+        String discordId = String.valueOf(body.get("discord_id"));
+        accountStatus.put(discordId, true);
+        return user(discordId, String.valueOf(body.get("discord_username")), true);
+    }
+
+    private Object authenticate(HttpExchange exchange, Map<String, Object> body) throws IOException {
+        String discordId = String.valueOf(body.get("discordId"));
+        if (body.get("refreshToken") == null) {
+            respond(exchange, 401, Collections.singletonMap("message", "Missing refresh token"));
+            return null;
+        }
+        return user(discordId, "user-" + discordId, accountStatus.getOrDefault(discordId, true));
+    }
+
+    private Object refreshSession(HttpExchange exchange, Map<String, Object> body) {
+        return credentials(String.valueOf(body.get("discordId")));
+    }
+
+    private Object getUser(HttpExchange exchange, Map<String, Object> body) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        String discordId = query == null ? null : query.substring(query.indexOf("discordId=") + "discordId=".length());
+        boolean enabled = accountStatus.getOrDefault(discordId, true);
+        String etag = "\"" + discordId + "-" + enabled + "\"";
+
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        if (notModified || etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return null;
+        }
+
+        Map<String, Object> user = user(discordId, "user-" + discordId, enabled);
+        user.remove("credentials");
+        return user;
+    }
+
+    private Object updateUserStatus(HttpExchange exchange, Map<String, Object> body) {
+        String discordId = String.valueOf(body.get("discordId"));
+        boolean enabled = Boolean.TRUE.equals(body.get("accountEnabled"));
+        accountStatus.put(discordId, enabled);
+        return Collections.singletonMap("accountEnabled", enabled);
+    }
+
+    private Object discordOAuth(HttpExchange exchange, Map<String, Object> body) {
+        Map<String, Object> token = new LinkedHashMap<>();
+        token.put("access_token", "discord-access-" + body.get("code"));
+        token.put("token_type", "Bearer");
+        token.put("expires_in", 604800);
+        token.put("refresh_token", "discord-refresh-" + body.get("code"));
+        token.put("scope", "identify email");
+        return token;
+    }
+
+    private static Map<String, Object> user(String discordId, String username, boolean enabled) {
+        Map<String, Object> user = new LinkedHashMap<>();
+        user.put("cognitoId", "cognito-" + discordId);
+        user.put("discordId", discordId);
+        user.put("discordUsername", username);
+        user.put("email", username + "@example.com");
+        user.put("accountEnabled", enabled);
+        user.put("credentials", credentials(discordId));
+        return user;
+    }
+
+    private static Map<String, Object> credentials(String discordId) {
+        Map<String, Object> credentials = new LinkedHashMap<>();
+        credentials.put("access_token", "access-" + discordId + "-" + System.nanoTime());
+        credentials.put("refresh_token", "refresh-" + discordId);
+        credentials.put("token_expiration_seconds", 3600);
+        return credentials;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readAllBytes();
+            return bytes.length == 0 ? new HashMap<>() : mapper.readValue(bytes, Map.class);
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = mapper.writeValueAsString(body).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.kraken.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ResponseCacheTest {
+    private static final String KEY = "/api/v1/example?id=1";
+    private static final byte[] BODY = "{\"id\":\"1\"}".getBytes(StandardCharsets.UTF_8);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveARestart() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        new ResponseCache(1024, dir, new ObjectMapper()).put(KEY, headers("ETag", "\"1\""), BODY, true);
+
+        ResponseCache.Entry entry = new ResponseCache(1024, dir, new ObjectMapper()).get(KEY);
+        assertNotNull(entry);
+        assertArrayEquals(BODY, entry.getBody());
+        assertEquals("\"1\"", entry.getEtag());
+    }
+
+    @Test
+    public void removedAndEvictedEntriesAreDeletedFromDisk() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        ResponseCache cache = new ResponseCache(BODY.length, dir, new ObjectMapper());
+        cache.put(KEY, headers("ETag", "\"1\""), BODY, true);
+        cache.put(KEY + "2", headers("ETag", "\"2\""), BODY, true);
+        cache.remove(KEY + "2");
+
+        ResponseCache restarted = new ResponseCache(1024, dir, new ObjectMapper());
+        assertNull(restarted.get(KEY));
+        assertNull(restarted.get(KEY + "2"));
+        assertEquals(0, cache.getTotalBytes());
+    }
+
+    @Test
+    public void memoryOnlyEntriesAreNeverWrittenToDisk() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        new ResponseCache(1024, dir, new ObjectMapper()).put(KEY, headers("ETag", "\"1\""), BODY, true);
+
+        ResponseCache cache = new ResponseCache(1024, dir, new ObjectMapper());
+        cache.put(KEY, headers("ETag", "\"2\""), BODY, false);
+        assertEquals("\"2\"", cache.get(KEY).getEtag());
+        cache.revalidated(cache.get(KEY), headers("ETag", "\"3\""), false);
+
+        assertNull(new ResponseCache(1024, dir, new ObjectMapper()).get(KEY));
+        assertEquals(0, dir.toFile().list().length);
+    }
+
+    private static HttpHeaders headers(String name, String value) {
+        Map<String, List<String>> headers = Collections.singletonMap(name, Collections.singletonList(value));
+        return HttpHeaders.of(headers, (n, v) -> true);
+    }
+}
@@ -0,0 +1,62 @@
+package com.kraken.api;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.kraken.api.CognitoFixtures.credentials;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class SharedTokenBrokerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void publishedCredentialsAreVisibleToOtherBrokers() {
+        SharedTokenBroker first = new SharedTokenBroker(new JsonCodec(), folder.getRoot().toPath());
+        SharedTokenBroker second = new SharedTokenBroker(new JsonCodec(), folder.getRoot().toPath());
+        assertNull(second.read("1"));
+
+        assertEquals(1, first.publish("1", credentials("a")));
+        assertEquals(2, first.publish("1", credentials("b")));
+
+        SharedTokenBroker.Snapshot snapshot = second.read("1");
+        assertEquals(2, snapshot.getSequence());
+        assertEquals("b", snapshot.getCredentials().getAccessToken());
+    }
+
+    @Test
+    public void onlyOneLeaderAtATime() {
+        SharedTokenBroker broker = new SharedTokenBroker(new JsonCodec(), folder.getRoot().toPath());
+
+        SharedTokenBroker.Leadership leadership = broker.tryLead("2");
+        assertNotNull(leadership);
+        assertNull(broker.tryLead("2"));
+
+        leadership.close();
+        SharedTokenBroker.Leadership next = broker.tryLead("2");
+        assertNotNull(next);
+        next.close();
+    }
+
+    @Test
+    public void followersSeeNewerCredentials() throws Exception {
+        SharedTokenBroker broker = new SharedTokenBroker(new JsonCodec(), folder.getRoot().toPath());
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            CompletableFuture<SharedTokenBroker.Snapshot> newer = broker.awaitNewer("3", broker.sequence("3"), Duration.ofSeconds(5), scheduler);
+            broker.publish("3", credentials("c"));
+            assertEquals("c", newer.get(5, TimeUnit.SECONDS).getCredentials().getAccessToken());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.kraken.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+
+public class MappedJarFileTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void writeJar(Path path, String content) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path); JarOutputStream jar = new JarOutputStream(out)) {
+            jar.putNextEntry(new JarEntry("com/krakenplugins/example/resource.txt"));
+            jar.write(content.getBytes(StandardCharsets.UTF_8));
+            jar.closeEntry();
+        }
+    }
+
+    private static String read(MappedJarFile jar) throws IOException {
+        ByteBuffer buffer = jar.read("com/krakenplugins/example/resource.txt");
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long count(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void originalCanBeReplacedWhileTheShadowCopyIsMapped() throws Exception {
+        Path original = folder.getRoot().toPath().resolve("example.jar");
+        Path shadowDir = folder.newFolder("shadow").toPath();
+        writeJar(original, "first");
+
+        MappedJarFile jar = MappedJarFile.openShadowCopy(original, shadowDir);
+        assertEquals(1, count(shadowDir));
+
+        Path update = folder.getRoot().toPath().resolve("example.jar.part");
+        writeJar(update, "second");
+        Files.move(update, original, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        assertEquals("first", read(jar));
+
+        jar.close();
+        assertEquals(0, count(shadowDir));
+
+        try (MappedJarFile reopened = MappedJarFile.openShadowCopy(original, shadowDir)) {
+            assertEquals("second", read(reopened));
+        }
+    }
+
+    @Test
+    public void leftoverShadowCopiesAreDeleted() throws Exception {
+        Path shadowDir = folder.newFolder("shadow").toPath();
+        Files.write(shadowDir.resolve("stale-123.jar"), new byte[]{1, 2, 3});
+
+        MappedJarFile.deleteShadowCopies(shadowDir);
+        assertEquals(0, count(shadowDir));
+    }
+}
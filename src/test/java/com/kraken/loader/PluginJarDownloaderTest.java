@@ -0,0 +1,180 @@
+package com.kraken.loader;
+
+import com.kraken.api.KrakenClient;
+import com.kraken.api.KrakenTransport;
+import com.kraken.metrics.KrakenMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PluginJarDownloaderTest {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-");
+
+    private static KrakenTransport transport;
+    private static KrakenClient client;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private byte[] jar;
+    private final AtomicInteger disconnects = new AtomicInteger();
+    private final List<String> rangeHeaders = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public static void setUpClass() {
+        transport = new KrakenTransport();
+        client = new KrakenClient(transport, new KrakenMetrics(transport.getCodec()));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        transport.getExecutor().shutdownNow();
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        jar = new byte[512 * 1024];
+        new Random(42).nextBytes(jar);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/plugins/example.jar", this::serveJar);
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    /**
+     * Serves the jar honouring Range requests. While disconnects remain the response is cut off half way through
+     * the remaining bytes to simulate a dropped connection.
+     */
+    private void serveJar(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        int offset = 0;
+        if (range != null) {
+            rangeHeaders.add(range);
+            Matcher matcher = RANGE.matcher(range);
+            if (matcher.matches()) {
+                offset = Integer.parseInt(matcher.group(1));
+            }
+        }
+
+        int length = jar.length - offset;
+        if (offset > 0) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + offset + "-" + (jar.length - 1) + "/" + jar.length);
+            exchange.sendResponseHeaders(206, length);
+        } else {
+            exchange.sendResponseHeaders(200, length);
+        }
+
+        OutputStream os = exchange.getResponseBody();
+        if (disconnects.getAndDecrement() > 0) {
+            os.write(jar, offset, length / 2);
+            os.flush();
+            // Closing the exchange before the declared content length has been written drops the connection.
+            exchange.close();
+            return;
+        }
+
+        os.write(jar, offset, length);
+        os.close();
+    }
+
+    private URI jarUri() {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/plugins/example.jar");
+    }
+
+    private static String sha256(byte[] bytes) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    @Test
+    public void downloadsAndMovesJarIntoPlace() throws Exception {
+        Path pluginDir = folder.newFolder("plugins").toPath();
+        PluginJarDownloader downloader = new PluginJarDownloader(client, pluginDir);
+
+        Path result = downloader.download(jarUri(), "example.jar", sha256(jar));
+
+        assertEquals(pluginDir.resolve("example.jar"), result);
+        assertArrayEquals(jar, Files.readAllBytes(result));
+        assertFalse(Files.exists(pluginDir.resolve("example.jar.part")));
+        assertTrue(rangeHeaders.isEmpty());
+    }
+
+    @Test
+    public void resumesAfterDisconnects() throws Exception {
+        disconnects.set(2);
+        Path pluginDir = folder.newFolder("plugins").toPath();
+        PluginJarDownloader downloader = new PluginJarDownloader(client, pluginDir);
+
+        Path result = downloader.download(jarUri(), "example.jar", sha256(jar));
+
+        assertArrayEquals(jar, Files.readAllBytes(result));
+        assertFalse("Expected at least one resumed request", rangeHeaders.isEmpty());
+        for (String range : rangeHeaders) {
+            assertFalse("Resumed download should not restart from 0", range.equals("bytes=0-"));
+        }
+    }
+
+    @Test
+    public void rejectsDigestMismatch() throws Exception {
+        Path pluginDir = folder.newFolder("plugins").toPath();
+        PluginJarDownloader downloader = new PluginJarDownloader(client, pluginDir);
+
+        try {
+            downloader.download(jarUri(), "example.jar", sha256(new byte[]{1, 2, 3}));
+            fail("Expected digest mismatch");
+        } catch (PluginJarDownloader.DigestMismatchException e) {
+            assertFalse(Files.exists(pluginDir.resolve("example.jar")));
+            assertFalse(Files.exists(pluginDir.resolve("example.jar.part")));
+        }
+    }
+
+    @Test
+    public void rejectsFileNamesOutsideThePluginDirectory() throws Exception {
+        Path pluginDir = folder.newFolder("plugins").toPath();
+        PluginJarDownloader downloader = new PluginJarDownloader(client, pluginDir);
+
+        for (String fileName : new String[]{"../example.jar", "nested/../../example.jar", folder.getRoot() + "/example.jar", "example.zip", "."}) {
+            try {
+                downloader.download(jarUri(), fileName, sha256(jar));
+                fail("Expected " + fileName + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                assertFalse(Files.exists(folder.getRoot().toPath().resolve("example.jar")));
+            }
+        }
+    }
+}
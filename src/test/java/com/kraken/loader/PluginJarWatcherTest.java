@@ -0,0 +1,52 @@
+package com.kraken.loader;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class PluginJarWatcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void watchesPluginDirectoryCreatedAfterStart() throws Exception {
+        Path pluginDir = folder.getRoot().toPath().resolve("kraken").resolve("plugins");
+        BlockingQueue<PluginJarWatcher.Changes> changes = new LinkedBlockingQueue<>();
+        PluginJarWatcher watcher = new PluginJarWatcher(Collections.singletonList(pluginDir), changes::add);
+        watcher.start();
+        try {
+            Files.createDirectories(pluginDir);
+            Path jar = pluginDir.resolve("example.jar");
+            Files.write(jar, new byte[]{1, 2, 3});
+
+            PluginJarWatcher.Changes change = changes.poll(10, TimeUnit.SECONDS);
+            assertNotNull(change);
+            assertEquals(Collections.singletonList(jar.toAbsolutePath().normalize().toString()), change.getAdded());
+        } finally {
+            watcher.stop();
+        }
+    }
+
+    @Test
+    public void listenerIsNotCalledAfterStop() throws Exception {
+        Path pluginDir = folder.newFolder("plugins").toPath();
+        BlockingQueue<PluginJarWatcher.Changes> changes = new LinkedBlockingQueue<>();
+        PluginJarWatcher watcher = new PluginJarWatcher(Collections.singletonList(pluginDir), changes::add);
+        watcher.start();
+        watcher.stop();
+
+        Files.write(pluginDir.resolve("example.jar"), new byte[]{1, 2, 3});
+        assertNull(changes.poll(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,35 @@
+package com.kraken.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValue() {
+        for (long micros = 0; micros < (1L << 40); micros = micros * 2 + 1) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= micros);
+            assertEquals(index, LatencyHistogram.bucketIndex(LatencyHistogram.bucketUpperBound(index)));
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1_000_000, histogram.getMaxMicros());
+        long p50 = histogram.getPercentileMicros(0.50);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 1.125);
+        long p99 = histogram.getPercentileMicros(0.99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+    }
+}